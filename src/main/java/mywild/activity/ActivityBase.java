@@ -28,4 +28,6 @@ public class ActivityBase {
 
     private List<ActivityStep> steps;
 
+    private List<ActivityRegion> regions; // Named polygons that the steps can refer to
+
 }
@@ -19,5 +19,7 @@ public class ActivityCalculation {
     private int score;
 
     private List<Integer> observations; // The observations that contributed to the score
+
+    private List<Integer> cells; // The grid cells (or regions) that were covered (Explore)
     
 }
@@ -9,11 +9,13 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import mywild.core.security.jwt.Utils;
+import mywild.job.Job;
 
 @Tag(name = "Activities", description = "Manage Activities.")
 @RestController
@@ -52,10 +54,12 @@ public class ActivityController {
         service.deleteActivity(Utils.getUserIdFromJwt(jwtToken), activityId);
     }
 
-    @Operation(summary = "Calculate the Activity.")
+    @Operation(summary = "Queue the Activity to be calculated (only the new observations, unless a rebuild is requested).",
+        description = "When the same calculation is already queued or running, that Job is returned instead. A retry with the same Idempotency-Key (by the same User) returns the same Job.")
     @PostMapping("/activities/{activityId}/calculate")
-    public Activity calculateActivity(@PathVariable String activityId, JwtAuthenticationToken jwtToken) {
-        return service.calculateActivity(Utils.getUserIdFromJwt(jwtToken), activityId);
+    public Job calculateActivity(@PathVariable String activityId, @RequestParam(defaultValue = "false") boolean rebuild,
+            @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey, JwtAuthenticationToken jwtToken) {
+        return service.calculateActivity(Utils.getUserIdFromJwt(jwtToken), activityId, rebuild, idempotencyKey);
     }
 
     @Operation(summary = "Enable an Activity.")
@@ -48,6 +48,14 @@ public class ActivityEntity extends BaseEntity {
 
     private List<ActivityStep> steps;
 
+    private List<ActivityRegion> regions; // Named polygons that the steps can refer to
+
     private List<ActivityStepResult> results;
 
+    private List<ActivityStepState> states; // Used to only fetch the new observations when calculating again
+
+    private String calculatingNode; // The application instance that is calculating the Activity, while CALCULATING
+
+    private ZonedDateTime heartbeat; // When the calculating node last saved its progress, while CALCULATING
+
 }
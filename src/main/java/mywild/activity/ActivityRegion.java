@@ -0,0 +1,25 @@
+package mywild.activity;
+
+import java.util.List;
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+
+@ToString(callSuper = true)
+@Getter
+@Setter
+@SuperBuilder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActivityRegion {
+
+    @NotBlank
+    private String name;
+
+    private List<List<Double>> polygon; // The [lat, lng] points of the outline
+
+}
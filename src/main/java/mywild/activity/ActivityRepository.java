@@ -11,4 +11,6 @@ public interface ActivityRepository extends CosmosRepository<ActivityEntity, Str
 
     int countByEventId(String eventId);
 
+    List<ActivityEntity> findAllByStatus(ActivityStatus status);
+
 }
@@ -19,6 +19,7 @@ import mywild.event.EventEntity;
 import mywild.event.EventRepository;
 import mywild.event.EventUtils;
 import mywild.event.EventVisibilityType;
+import mywild.job.Job;
 import mywild.user.UserEntity;
 import mywild.user.UserRepository;
 
@@ -82,6 +83,7 @@ public class ActivityService {
         EventEntity validEvent = getValidEvent(validUser, entity.getEventId(), false);
         checkThatEventCanBeModified(validUser, validEvent);
         lowercaseCriteria(activityBase);
+        entity = stopCalculation(entity, "The Activity was updated.");
         return ActivityMapper.INSTANCE
                 .entityToDto(repo.save(ActivityMapper.INSTANCE.dtoToExistingEntity(entity, activityBase)));
     }
@@ -93,11 +95,12 @@ public class ActivityService {
             ActivityEntity entity = foundEntity.get();
             EventEntity validEvent = getValidEvent(validUser, entity.getEventId(), false);
             checkThatEventCanBeModified(validUser, validEvent);
+            calculateService.cancel(entity.getEventId(), entity.getId(), "The Activity was deleted.");
             repo.delete(entity);
         }
     }
 
-    public @Valid Activity calculateActivity(@NotNull String userId, @NotNull String id) {
+    public @Valid Job calculateActivity(@NotNull String userId, @NotNull String id, boolean rebuild, String idempotencyKey) {
         UserEntity validUser = getValidUser(userId);
         Optional<ActivityEntity> foundEntity = repo.findById(id);
         if (!foundEntity.isPresent())
@@ -105,8 +108,7 @@ public class ActivityService {
         ActivityEntity entity = foundEntity.get();
         EventEntity validEvent = getValidEvent(validUser, entity.getEventId(), false);
         checkThatEventCanBeModified(validUser, validEvent);
-        entity = calculateService.calculateActivity(entity);
-        return ActivityMapper.INSTANCE.entityToDto(entity);
+        return calculateService.queueActivity(entity, rebuild, validUser.getId(), idempotencyKey);
     }
 
     public @Valid Activity enableActivity(@NotNull String userId, @NotNull String id) {
@@ -125,10 +127,21 @@ public class ActivityService {
         ActivityEntity entity = foundEntity.get();
         EventEntity validEvent = getValidEvent(validUser, entity.getEventId(), false);
         checkThatEventCanBeModified(validUser, validEvent);
+        if (reason != null)
+            entity = stopCalculation(entity, "The Activity was disabled.");
         entity.setDisableReason(reason);
         return ActivityMapper.INSTANCE.entityToDto(repo.save(entity));
     }
 
+    /**
+     * Cancel the calculation of the Activity (if any), so that it does not overwrite the change.
+     * @return The Activity as it was left by the cancelled calculation.
+     */
+    private ActivityEntity stopCalculation(ActivityEntity entity, String reason) {
+        calculateService.cancel(entity.getEventId(), entity.getId(), reason);
+        return repo.findById(entity.getId()).orElse(entity);
+    }
+
     private void checkThatEventCanBeModified(UserEntity user, EventEntity event) {
         if (!EventUtils.containsName(event.getAdmins(), user.getUsername()))
             throw new ForbiddenException("Activity cannot be modified by this User!");
@@ -4,5 +4,6 @@ public enum ActivityStatus {
     PENDING,
     CALCULATING,
     CALCULATED,
-    ERROR
+    ERROR,
+    CANCELLED
 }
@@ -0,0 +1,30 @@
+package mywild.activity;
+
+import java.time.ZonedDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * The part of an observation that a step's result depends on, only what is needed to score it again.
+ */
+@ToString(callSuper = true)
+@Getter
+@Setter
+@SuperBuilder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActivityStepObservation {
+
+    private int id;
+
+    private String login;
+
+    private String observedOn;
+
+    private ZonedDateTime timeObservedAt;
+
+}
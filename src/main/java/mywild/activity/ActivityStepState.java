@@ -0,0 +1,36 @@
+package mywild.activity;
+
+import java.util.List;
+import java.util.Map;
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * What is needed to continue the calculation of a step from where the previous calculation stopped.
+ */
+@ToString(callSuper = true)
+@Getter
+@Setter
+@SuperBuilder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActivityStepState {
+
+    @NotBlank
+    private String stepId;
+
+    @NotBlank
+    private String query; // The state can only be used while the step is still calculated using the same query
+
+    private int lastObservationId; // The watermark, newer observations have higher ids
+
+    private List<ActivityStepObservation> observations; // The observations that the result depends on (only what scoring needs)
+
+    private Map<String, String> coverage; // The cells covered by each participant (Base64 bitsets), instead of observations
+
+}
@@ -2,24 +2,47 @@ package mywild.activity.calculate;
 
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
-import org.springframework.web.util.UriComponentsBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import mywild.activity.ActivityDisableReason;
 import mywild.activity.ActivityEntity;
 import mywild.activity.ActivityRepository;
 import mywild.activity.ActivityStatus;
 import mywild.activity.ActivityStep;
-import mywild.activity.ActivityStepResult;
+import mywild.activity.ActivityStepState;
+import mywild.activity.calculate.inaturalist.INatQuery;
 import mywild.activity.calculate.inaturalist.Observation;
 import mywild.activity.calculate.inaturalist.Observations;
+import mywild.activity.calculate.inaturalist.Observer;
+import mywild.activity.calculate.inaturalist.Observers;
+import mywild.activity.calculate.inaturalist.Taxon;
 import mywild.core.error.BadRequestException;
 import mywild.event.EventEntity;
+import mywild.job.JobContext;
 
 // TODO: Add unit tests for all the CalculateAbstract implementions
 
@@ -27,7 +50,11 @@ import mywild.event.EventEntity;
 @Service
 public abstract class CalculateAbstract {
 
-    protected RestClient restClient = RestClient.create("https://api.inaturalist.org/v1/");
+    private static final int OBSERVERS_PER_PAGE = 500;
+
+    private static final int STATE_VERSION = 3; // Increase when the stored observations (of the step states) change format
+
+    private static final String NODE_ID = UUID.randomUUID().toString(); // Identifies this application instance
 
     @Value("${mywild.wildevents.max-inat-results-per-activity}")
     protected int maxResults;
@@ -38,65 +65,300 @@ public abstract class CalculateAbstract {
     @Value("${mywild.wildevents.inat-results-per-page}")
     private int perPage;
 
+    @Value("${mywild.wildevents.inat-paging}")
+    private INatPaging paging;
+
+    @Value("${mywild.wildevents.inat-shard-concurrency}")
+    private int shardConcurrency;
+
+    @Value("${mywild.wildevents.inat-participants-per-query}")
+    private int participantsPerQuery;
+
+    @Value("${mywild.wildevents.calculate-checkpoint-seconds}")
+    private int checkpointSeconds;
+
     @Autowired
     private ActivityRepository activityRepo;
 
-    public final ActivityEntity process(EventEntity event, ActivityEntity activity) {
+    @Autowired
+    private INatClient inatClient;
+
+    @Autowired
+    private ShardPlanner shardPlanner;
+
+    @Autowired
+    private TaxonResolver taxonResolver;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    private Counter pagesSkipped;
+
+    private Counter pagesWasted;
+
+    private Counter localSteps;
+
+    @PostConstruct
+    private void init() {
+        pagesSkipped = Counter.builder("inat.pages.skipped")
+            .description("The number of iNaturalist pages that were not fetched because the step result was already known.")
+            .register(meterRegistry);
+        pagesWasted = Counter.builder("inat.pages.wasted")
+            .description("The number of iNaturalist pages that were fetched ahead, but were not needed because the step result was already known.")
+            .register(meterRegistry);
+        localSteps = Counter.builder("inat.steps.local")
+            .description("The number of steps that were calculated from the local observations of the Event, without querying iNaturalist.")
+            .register(meterRegistry);
+    }
+
+    public final ActivityEntity process(EventEntity event, ActivityEntity activity, JobContext context, SharedPages pages,
+            boolean rebuild) {
+        Checkpoints checkpoints = null;
+        PersistQueue persists = pages.getPersists();
+        List<ActivityStepState> savedStates = rebuild ? null : activity.getStates();
         try {
             // Start
+            Map<String, ActivityStepState> previousStates = new HashMap<>();
+            if (savedStates != null) {
+                for (ActivityStepState state : savedStates) {
+                    previousStates.put(state.getStepId(), state);
+                }
+            }
             activity.setResults(new ArrayList<>(maxSteps));
+            activity.setStates(new ArrayList<>(maxSteps));
             activity.setCalculated(null);
             activity.setDisableReason(null);
-            activity = saveStatus(activity, ActivityStatus.CALCULATING);
+            activity = saveStatus(activity, ActivityStatus.CALCULATING, persists);
             // Validate Activity
             validate(activity);
             // Process each Criteria
-            List<String> participants = Arrays.asList(event.getParticipants().replace("#", "").split(","));
-            processing:
-            for (ActivityStep step : activity.getSteps()) {
-                // Fetch Data
-                log.debug("Preparing to fetch all observations from iNat...");
-                int totalResults = maxResults;
-                int page = 1; // Starts at 1 not 0
-                List<Observation> observations = new ArrayList<>();
-                while (page * perPage < totalResults) {
-                    Observations observationsPage = fetch(event, step, page++);
-                    if (observationsPage.total_results() <= maxResults) {
-                        observations.addAll(observationsPage.results());
+            Participants participants = pages.getParticipants(event);
+            Map<ActivityStep, ResumableCalculator> calculators = new IdentityHashMap<>();
+            Map<ActivityStep, ActivityStepState> resumable = new IdentityHashMap<>();
+            List<ActivityStep> newSteps = new ArrayList<>();
+            // Every unit of work (preparing the Activity, or a step) takes one of the Job's permits, but never two at once
+            Semaphore permits = pages.getPermits();
+            ActivityEntity preparing = activity;
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                Future<Map<ActivityStep, ResumableCalculator>> preparation = executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        for (ActivityStep step : preparing.getSteps()) {
+                            ActivityStepState state = previousStates.get(step.getId());
+                            ResumableCalculator localCalculator = calculateLocally(preparing, participants, step, pages.getLocalObservations());
+                            if (localCalculator != null)
+                                calculators.put(step, localCalculator);
+                            else if (state != null && state.getQuery().equals(stateQuery(event, preparing, step)))
+                                resumable.put(step, state);
+                            else
+                                newSteps.add(step);
+                        }
+                        return calculateTaxonUnions(event, preparing, participants, newSteps, context, pages);
+                    }
+                    finally {
+                        permits.release();
                     }
-                    else {
-                        log.warn("This Activity ({}) needs to fetch {} results, but only {} are allowed.", 
-                            activity.getId(), observationsPage.results().size(), maxResults);
-                        activity.setCalculated(null);
-                        activity.setDisableReason(ActivityDisableReason.TOO_MANY_RESULTS);
-                        activity = saveStatus(activity, ActivityStatus.ERROR);
-                        break processing;
+                });
+                try {
+                    // Keep the claim fresh while waiting for a permit and while preparing
+                    Map<ActivityStep, ResumableCalculator> unions = null;
+                    while (unions == null) {
+                        unions = awaitHeartbeat(preparation, activity, persists);
+                    }
+                    calculators.putAll(unions);
+                }
+                finally {
+                    executor.shutdownNow();
+                }
+            }
+            for (ActivityStep step : calculators.keySet()) {
+                pages.release(activity.getId(), step.getId()); // Calculated without reading the pages of their queries
+            }
+            checkpoints = new Checkpoints();
+            for (ActivityStep step : activity.getSteps()) {
+                if (!calculators.containsKey(step))
+                    checkpoints.track(step.getId(), stateQuery(event, activity, step));
+            }
+            Checkpoints stepCheckpoints = checkpoints;
+            Map<ActivityStep, Future<ResumableCalculator>> running = new IdentityHashMap<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                ActivityEntity calculating = activity;
+                for (ActivityStep step : activity.getSteps()) {
+                    if (calculators.containsKey(step))
+                        continue;
+                    ActivityStepState state = resumable.get(step);
+                    SharedPages stepPages = pages.forStep();
+                    running.put(step, executor.submit(() -> {
+                        permits.acquire();
+                        try {
+                            return state != null
+                                ? calculateNewObservations(event, calculating, participants, step, state, context, stepPages, stepCheckpoints)
+                                : calculateStep(event, calculating, participants, step, context, stepPages, stepCheckpoints);
+                        }
+                        finally {
+                            stepPages.release(calculating.getId(), step.getId());
+                            permits.release();
+                        }
+                    }));
+                }
+                try {
+                    // Save the results in step order, as each step completes, and the checkpoints of the running steps while waiting
+                    List<ActivityStep> steps = activity.getSteps();
+                    for (int i = 0; i < steps.size(); i++) {
+                        ActivityStep step = steps.get(i);
+                        ResumableCalculator calculator = calculators.get(step);
+                        while (calculator == null) {
+                            try {
+                                calculator = await(running.get(step), checkpointSeconds);
+                            }
+                            catch (TimeoutException ex) {
+                                saveCheckpoints(activity, checkpoints, persists);
+                            }
+                        }
+                        checkpoints.finish(step.getId());
+                        activity.getResults().add(calculator.finish());
+                        activity.getStates().add(calculator.toState(step.getId(), stateQuery(event, activity, step)));
+                        activity.setCalculated(ZonedDateTime.now());
+                        // Only the last step marks the Activity as calculated, until then a restart continues the calculation
+                        if (i == steps.size() - 1)
+                            activity = saveStatus(activity, ActivityStatus.CALCULATED, persists);
+                        else
+                            queueStatus(activity, ActivityStatus.CALCULATING, persists);
+                        log.debug("Calculated");
                     }
-                    totalResults = Math.min(observationsPage.total_results(), maxResults);
                 }
-                log.debug("Done fetching all observations from iNat");
-                // Calculate Results
-                log.debug("Preparing to calculate {} observations...", observations.size());
-                activity.getResults().add(doCalculation(participants, step, observations));
-                activity.setCalculated(ZonedDateTime.now());
-                activity = saveStatus(activity, ActivityStatus.CALCULATED);
-                log.debug("Calculated");
+                finally {
+                    executor.shutdownNow(); // Stop the other steps when one of them failed
+                }
             }
         }
+        catch (TooManyResultsException ex) {
+            log.warn("This Activity ({}) needs to fetch {} results, but only {} are allowed.",
+                activity.getId(), ex.getTotalResults(), maxResults);
+            activity.setCalculated(null);
+            activity.setStates(null);
+            activity.setDisableReason(ActivityDisableReason.TOO_MANY_RESULTS);
+            activity = saveStatus(activity, ActivityStatus.ERROR, persists);
+        }
         catch (Throwable ex) {
+            if (context.isSuspended()) {
+                Thread.interrupted(); // Clear the suspension, so that the checkpoints can be saved
+                if (checkpoints == null) { // Not started yet, so it continues from its previous states
+                    log.info("Suspended the calculation of the Activity ({}) before it started.", activity.getId());
+                    activity.setStates(savedStates == null ? null : new ArrayList<>(savedStates));
+                    return saveStatus(activity, ActivityStatus.CALCULATING, false, persists); // Release the claim
+                }
+                log.info("Suspended the calculation of the Activity ({}), it continues from its checkpoints later on.", activity.getId());
+                activity.getStates().addAll(checkpoints.take());
+                return saveStatus(activity, ActivityStatus.CALCULATING, false, persists); // Any node can resume it right away
+            }
+            String cancelReason = context.getCancelReason(activity.getId());
+            if (cancelReason != null) {
+                Thread.interrupted(); // Clear the cancellation, so that the cancelled status can be saved
+                log.info("Cancelled the calculation of the Activity ({}): {}", activity.getId(), cancelReason);
+                activity.setCalculated(null);
+                return saveStatus(activity, ActivityStatus.CANCELLED, persists);
+            }
             log.error("Failed to calculate the Activity ({})!", activity.getId());
             log.error("Calculation Error!", ex);
             activity.setCalculated(null);
+            activity.setStates(null);
             activity.setDisableReason(ActivityDisableReason.FAILED_TO_CALCULATE);
-            activity = saveStatus(activity, ActivityStatus.ERROR);
+            activity = saveStatus(activity, ActivityStatus.ERROR, persists);
         }
         return activity;
     }
 
-    private ActivityEntity saveStatus(ActivityEntity activity, ActivityStatus status) {
+    /**
+     * Wait (for at most the checkpoint interval) for the work to finish, queueing a heartbeat when it did not.
+     * @return The result of the work, or null if it is still running.
+     */
+    private <T> T awaitHeartbeat(Future<T> work, ActivityEntity activity, PersistQueue persists) throws InterruptedException {
+        try {
+            return await(work, checkpointSeconds);
+        }
+        catch (TimeoutException ex) {
+            queueStatus(activity, ActivityStatus.CALCULATING, persists);
+            return null;
+        }
+    }
+
+    /**
+     * Wait (for at most the timeout) for the step to be calculated, rethrowing its failure.
+     */
+    private static <T> T await(Future<T> step, int timeoutSeconds)
+            throws InterruptedException, TimeoutException {
+        try {
+            return step.get(timeoutSeconds, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            if (ex.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Queue a save of the checkpoints of the running steps along with the states of the finished steps.
+     * This is also the heartbeat that shows the other nodes that the calculation is still running.
+     */
+    private void saveCheckpoints(ActivityEntity activity, Checkpoints checkpoints, PersistQueue persists)
+            throws InterruptedException {
+        List<ActivityStepState> finished = activity.getStates();
+        List<ActivityStepState> states = new ArrayList<>(finished);
+        states.addAll(checkpoints.take());
+        activity.setStates(states);
+        try {
+            queueStatus(activity, ActivityStatus.CALCULATING, persists);
+        }
+        finally {
+            activity.setStates(finished);
+        }
+        log.debug("Queued the checkpoints of Activity ({})", activity.getId());
+    }
+
+    /**
+     * Save the Activity in the background, the calculation continues with the same (unsaved) Activity.
+     */
+    private void queueStatus(ActivityEntity activity, ActivityStatus status, PersistQueue persists) throws InterruptedException {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("The calculation was stopped before saving the Activity.");
+        setStatus(activity, status, true);
+        persists.save(activity);
+    }
+
+    private ActivityEntity saveStatus(ActivityEntity activity, ActivityStatus status, PersistQueue persists) {
+        return saveStatus(activity, status, true, persists);
+    }
+
+    /**
+     * Save the Activity right away, after its queued saves.
+     * @param running If this node is still calculating the Activity (when it is CALCULATING).
+     */
+    private ActivityEntity saveStatus(ActivityEntity activity, ActivityStatus status, boolean running, PersistQueue persists) {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("The calculation was stopped before saving the Activity.");
+        persists.drain(activity.getId());
+        setStatus(activity, status, running);
+        return pipelineMetrics.getPersistStage().record(() -> {
+            activityRepo.save(activity);
+            return activityRepo.findById(activity.getId()).get();
+        });
+    }
+
+    /**
+     * Set the status, and while this node is calculating the Activity, claim it with a fresh heartbeat.
+     */
+    private static void setStatus(ActivityEntity activity, ActivityStatus status, boolean running) {
+        boolean calculating = running && status == ActivityStatus.CALCULATING;
         activity.setStatus(status);
-        activityRepo.save(activity);
-        return activityRepo.findById(activity.getId()).get();
+        activity.setCalculatingNode(calculating ? NODE_ID : null);
+        activity.setHeartbeat(calculating ? ZonedDateTime.now() : null);
     }
 
     private void validate(ActivityEntity activity) {
@@ -107,47 +369,514 @@ public abstract class CalculateAbstract {
         doValidation(activity);
     }
 
-    private Observations fetch(EventEntity event, ActivityStep step, int page) {
-        // TODO: Implement better throttling than sleeping the thread
-        try {
-            log.debug("Sleep before fetching, in order to limit to the requests per minute sent to iNaturalist...");
-            Thread.sleep(1500);
+    /**
+     * The observation queries that the step will page through.
+     */
+    final List<INatQuery> stepQueries(EventEntity event, Participants participants, ActivityStep step) {
+        INatQuery query = observationsQuery(event, step, isKeyset());
+        return participants.size() > participantsPerQuery ? chunkQueries(query, participants) : List.of(query);
+    }
+
+    /**
+     * Indicate that at least one of the steps can be calculated from the local observations of the Event.
+     */
+    final boolean hasLocalSteps(ActivityEntity activity) {
+        return activity.getSteps().stream().anyMatch(step -> LocalCriteria.of(queryCriteria(step), taxonResolver) != null);
+    }
+
+    /**
+     * Calculate the step from the local observations of the Event, without querying iNaturalist.
+     * @return The calculator, or null if the step cannot be calculated locally.
+     */
+    private ResumableCalculator calculateLocally(ActivityEntity activity, Participants participants, ActivityStep step,
+            ObservationBuffer localObservations) {
+        if (localObservations == null)
+            return null;
+        Predicate<ObservationBuffer.Cursor> filter = LocalCriteria.of(queryCriteria(step), taxonResolver);
+        if (filter == null)
+            return null;
+        ResumableCalculator calculator = start(activity, participants, step);
+        List<Observation> matches = new ArrayList<>();
+        ObservationBuffer.Cursor cursor = localObservations.cursor();
+        while (cursor.next()) {
+            if (filter.test(cursor))
+                matches.add(cursor.toObservation());
         }
-        catch (InterruptedException ex) {
-            log.warn(ex.getMessage(), ex);
+        calculator.accept(matches);
+        localSteps.increment();
+        log.debug("Calculated step ({}) from the local observations", step.getId());
+        return calculator;
+    }
+
+    /**
+     * Calculate the steps that differ only by their taxon_name together, using a single (taxon_id) query for all
+     * their taxa.
+     * @return The calculators of the steps that were calculated, the other steps still need to be calculated on their own.
+     */
+    private Map<ActivityStep, ResumableCalculator> calculateTaxonUnions(EventEntity event, ActivityEntity activity, Participants participants,
+            List<ActivityStep> steps, JobContext context, SharedPages pages) {
+        Map<ActivityStep, ResumableCalculator> results = new IdentityHashMap<>();
+        if (!isTaxonUnionSupported() || participants.size() > participantsPerQuery)
+            return results;
+        Map<Map<String, String>, List<ActivityStep>> groups = new LinkedHashMap<>();
+        for (ActivityStep step : steps) {
+            if (step.getCriteria().containsKey("taxon_name") && !step.getCriteria().containsKey("taxon_id")) {
+                Map<String, String> otherCriteria = new HashMap<>(step.getCriteria());
+                otherCriteria.remove("taxon_name");
+                groups.computeIfAbsent(otherCriteria, key -> new ArrayList<>()).add(step);
+            }
         }
-        log.debug("Fetching page {}...", page);
-        UriComponentsBuilder builder = UriComponentsBuilder.fromPath("observations");
-        step.getCriteria().entrySet().forEach(entry -> builder.queryParam(entry.getKey(), entry.getValue()));
-        try {
-            return restClient
-                .get()
-                .uri(configureBaseQueryParams(builder, event, page))
-                .retrieve()
-                .body(Observations.class); // To see the full JSON use: body(String.class)
+        for (List<ActivityStep> group : groups.values()) {
+            if (group.size() > 1)
+                results.putAll(calculateTaxonUnion(event, activity, participants, group, context, pages));
         }
-        catch (Throwable ex) {
-            log.error("Failed Query: {}", "https://api.inaturalist.org/v1/" + builder.toUriString());
-            throw ex;
+        return results;
+    }
+
+    private Map<ActivityStep, ResumableCalculator> calculateTaxonUnion(EventEntity event, ActivityEntity activity, Participants participants,
+            List<ActivityStep> group, JobContext context, SharedPages pages) {
+        TaxonRouter router = new TaxonRouter();
+        for (int i = 0; i < group.size(); i++) {
+            String taxonName = group.get(i).getCriteria().get("taxon_name");
+            List<Taxon> taxa = taxonResolver.resolve(taxonName);
+            if (taxa.isEmpty()) {
+                log.debug("Cannot combine the steps, the taxon name ({}) is unknown", taxonName);
+                return Map.of();
+            }
+            for (Taxon taxon : taxa) {
+                router.addTaxon(taxon.id(), i);
+            }
+        }
+        boolean keyset = isKeyset();
+        INatQuery query = observationsQuery(event, group.get(0), keyset)
+            .without("taxon_name")
+            .with("taxon_id", router.getTaxonIds().stream().map(String::valueOf).collect(Collectors.joining(",")));
+        ObservationPager pager = new ObservationPager(pages, query, keyset, perPage);
+        Observations observationsPage = pager.next();
+        int totalPages = pager.getTotalPages();
+        // The steps on their own can still use the observer counts, which could be cheaper than paging through them all
+        if (pager.getTotalResults() > maxResults
+                || (isScoredByFirstObservation() && totalPages > group.size() * (1 + participants.size()))) {
+            log.debug("Not combining {} steps, their combined query has {} results", group.size(), pager.getTotalResults());
+            return Map.of();
         }
+        log.debug("Calculating {} steps together using a combined taxon query...", group.size());
+        context.addPagesEstimated(Math.max(1, totalPages));
+        List<ResumableCalculator> calculators = group.stream().map(step -> start(activity, participants, step)).toList();
+        while (observationsPage != null) {
+            List<List<Observation>> routed = new ArrayList<>(group.size());
+            for (int i = 0; i < group.size(); i++) {
+                routed.add(new ArrayList<>());
+            }
+            for (Observation observation : observationsPage.results()) {
+                for (int step : router.route(observation)) {
+                    routed.get(step).add(observation);
+                }
+            }
+            for (int i = 0; i < group.size(); i++) {
+                calculators.get(i).accept(routed.get(i));
+            }
+            if (!keyset && calculators.stream().allMatch(StepCalculator::isDone)) {
+                skipPages(context, group.get(0), pager.getPage(), totalPages - pager.getPage());
+                break;
+            }
+            observationsPage = pager.next();
+        }
+        Map<ActivityStep, ResumableCalculator> results = new IdentityHashMap<>();
+        for (int i = 0; i < group.size(); i++) {
+            results.put(group.get(i), calculators.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Continue the previous calculation of the step, by fetching only the observations that are newer than its watermark.
+     */
+    private ResumableCalculator calculateNewObservations(EventEntity event, ActivityEntity activity, Participants participants, ActivityStep step,
+            ActivityStepState previous, JobContext context, SharedPages pages, Checkpoints checkpoints) throws InterruptedException {
+        log.debug("Fetching the observations after ({}) for step ({})...", previous.getLastObservationId(), step.getId());
+        ResumableCalculator calculator = new ResumableCalculator(begin(activity, participants, step), previous, pipelineMetrics.getScoreStage());
+        INatQuery query = observationsQuery(event, step, true);
+        List<INatQuery> queries = participants.size() > participantsPerQuery ? chunkQueries(query, participants) : List.of(query);
+        int observationCount = 0;
+        for (INatQuery chunk : queries) {
+            ObservationPager pager = new ObservationPager(pages, chunk, previous.getLastObservationId(), perPage);
+            List<Observation> results = pager.next().results();
+            if (pager.getTotalResults() > maxResults) {
+                log.debug("Too many new observations ({}), rather calculating step ({}) again", 
+                    pager.getTotalResults(), step.getId());
+                return calculateStep(event, activity, participants, step, context, pages, checkpoints);
+            }
+            context.addPagesEstimated(Math.max(1, pager.getTotalPages()));
+            calculator.accept(results);
+            observationCount += results.size();
+            // The watermark of a chunk does not cover the chunks that are still to come
+            observationCount += fetchRemainingPages(pager, true, calculator, step, pager.getTotalPages(), context, pages,
+                queries.size() == 1 ? checkpoints : null);
+        }
+        log.debug("Done fetching and calculating {} new observations from iNat", observationCount);
+        return calculator;
+    }
+
+    /**
+     * Fetch and calculate the observations of the step, page by page.
+     */
+    private ResumableCalculator calculateStep(EventEntity event, ActivityEntity activity, Participants participants, ActivityStep step,
+            JobContext context, SharedPages pages, Checkpoints checkpoints) throws InterruptedException {
+        log.debug("Preparing to fetch and calculate all observations from iNat...");
+        boolean keyset = isKeyset();
+        INatQuery query = observationsQuery(event, step, keyset);
+        if (participants.size() > participantsPerQuery)
+            return calculateChunkedStep(activity, participants, step, chunkQueries(query, participants), keyset, context, pages);
+        ResumableCalculator calculator = start(activity, participants, step);
+        ObservationPager pager = new ObservationPager(pages, query, keyset, perPage);
+        List<Observation> results = pager.next().results();
+        int totalResults = pager.getTotalResults();
+        int totalPages = pager.getTotalPages();
+        checkTotalResults(totalResults, context);
+        calculator.accept(results);
+        int observationCount = results.size();
+        List<INatQuery> shards;
+        if (!keyset && calculator.isDone()) {
+            skipPages(context, step, 1, totalPages - 1);
+        }
+        // Rather ask for the observer counts, and only fetch the first observation of each scoring participant,
+        // if that would be cheaper than fetching all the remaining pages
+        else if (isScoredByFirstObservation() && (totalResults > maxResults || 1 + participants.size() < totalPages - 1)) {
+            if (keyset) // The first page was not in observed order, so start over
+                calculator = start(activity, participants, step);
+            int fetched = fetchFirstObservations(query, calculator, context, pages);
+            observationCount += fetched;
+            skipPages(context, step, 1, totalPages - 1 - fetched);
+        }
+        // Split large steps into date ranges that are fetched in parallel
+        else if (shardPlanner.isShardingUseful(totalResults)
+                && (shards = shardPlanner.plan(query, event.getStart(), event.getStop(), totalResults, context)).size() > 1) {
+            observationCount += fetchShards(shards, keyset, results, calculator, step, totalPages, context, pages);
+        }
+        else {
+            observationCount += fetchRemainingPages(pager, keyset, calculator, step, totalPages, context, pages,
+                keyset ? checkpoints : null);
+        }
+        log.debug("Done fetching and calculating {} observations from iNat", observationCount);
+        return calculator;
+    }
+
+    /**
+     * Calculate the remaining pages of the pager, while the next pages are already being fetched. The fetching
+     * waits (for a few pages) when the calculator falls behind.
+     * @param checkpoints Receives the progress after each page, or null if the pages cannot be resumed from.
+     * @return The number of observations that were calculated.
+     */
+    private int fetchRemainingPages(ObservationPager pager, boolean keyset, ResumableCalculator calculator, ActivityStep step,
+            int totalPages, JobContext context, SharedPages pages, Checkpoints checkpoints) throws InterruptedException {
+        int observationCount = 0;
+        try (PageStreams stream = new PageStreams(pager, perPage, pages.getPermits(), pipelineMetrics)) {
+            List<Observation> results;
+            while ((results = stream.take(0)) != null) {
+                calculator.accept(results);
+                observationCount += results.size();
+                if (checkpoints != null)
+                    checkpoints.update(step.getId(), calculator);
+                int page = stream.getTakenPage(0);
+                if (!keyset && calculator.isDone()) {
+                    skipPages(context, step, page, totalPages - page, stream.getPrefetchedPages());
+                    break;
+                }
+            }
+        }
+        return observationCount;
+    }
+
+    /**
+     * Fetch the participants in chunks (to keep the URLs short), in parallel, and merge the chunks back into a single
+     * stream of pages in the same order as a single query would have returned them.
+     */
+    private ResumableCalculator calculateChunkedStep(ActivityEntity activity, Participants participants, ActivityStep step,
+            List<INatQuery> chunks, boolean keyset, JobContext context, SharedPages pages) throws InterruptedException {
+        log.debug("Fetching {} participant chunks for step ({})...", chunks.size(), step.getId());
+        Comparator<Observation> order = keyset ? Comparator.comparingInt(Observation::id) : Observation.OBSERVED_ORDER;
+        ResumableCalculator calculator = start(activity, participants, step);
+        int observationCount = 0;
+        try (PageStreams streams = new PageStreams(pages, chunks, keyset, perPage, shardConcurrency, pipelineMetrics)) {
+            int page = 0;
+            List<Observation> results;
+            while ((results = streams.takeMerged(order)) != null) {
+                page++;
+                // The first merged page needs the first page of every chunk, so the totals are known from here on
+                int totalResults = streams.getTotalResults();
+                int totalPages = streams.getTotalPages();
+                if (page == 1)
+                    checkTotalResults(totalResults, context);
+                calculator.accept(results);
+                observationCount += results.size();
+                if (!keyset && calculator.isDone()) {
+                    skipPages(context, step, page, totalPages - page, streams.getPrefetchedPages());
+                    break;
+                }
+                if (isScoredByFirstObservation() && (totalResults > maxResults || 1 + participants.size() < totalPages - page)) {
+                    if (keyset) // The pages so far were not in observed order, so start over
+                        calculator = start(activity, participants, step);
+                    int fetched = 0;
+                    for (INatQuery chunk : chunks) {
+                        fetched += fetchFirstObservations(chunk, calculator, context, pages);
+                    }
+                    observationCount += fetched;
+                    skipPages(context, step, page, totalPages - page - fetched, streams.getPrefetchedPages());
+                    break;
+                }
+            }
+        }
+        log.debug("Done fetching and calculating {} observations from iNat", observationCount);
+        return calculator;
+    }
+
+    private List<INatQuery> chunkQueries(INatQuery query, Participants participants) {
+        List<INatQuery> chunks = new ArrayList<>();
+        for (int i = 0; i < participants.size(); i += participantsPerQuery) {
+            chunks.add(query.with("user_id",
+                String.join(",", participants.getLogins().subList(i, Math.min(i + participantsPerQuery, participants.size())))));
+        }
+        return chunks;
+    }
+
+    private void checkTotalResults(int totalResults, JobContext context) {
+        context.addPagesEstimated(Math.max(1, (int) Math.ceil(Math.min(totalResults, maxResults) / (double) perPage)));
+        if (totalResults > maxResults && !isScoredByFirstObservation())
+            throw new TooManyResultsException(totalResults);
+    }
+
+    private void skipPages(JobContext context, ActivityStep step, int page, int remainingPages) {
+        skipPages(context, step, page, remainingPages, 0);
+    }
+
+    /**
+     * @param prefetchedPages The remaining pages that were already fetched ahead, they are wasted instead of skipped.
+     */
+    private void skipPages(JobContext context, ActivityStep step, int page, int remainingPages, int prefetchedPages) {
+        int wastedPages = Math.min(Math.max(0, remainingPages), prefetchedPages);
+        int skippedPages = remainingPages - wastedPages;
+        if (skippedPages > 0) {
+            log.debug("The result of step ({}) is known after page {}, skipping the remaining {} pages",
+                step.getId(), page, skippedPages);
+            context.addPagesSkipped(skippedPages);
+            pagesSkipped.increment(skippedPages);
+        }
+        if (prefetchedPages > 0) {
+            log.debug("The result of step ({}) is known after page {}, {} pages were fetched ahead for nothing",
+                step.getId(), page, prefetchedPages);
+            context.addPagesWasted(prefetchedPages);
+            pagesWasted.increment(prefetchedPages);
+        }
+    }
+
+    /**
+     * Use the observer counts (for the same criteria) to find the participants that made matching observations, and then
+     * fetch only the first matching observation of each of those participants.
+     * The watermark covers all the observations of the query, so that a later calculation only fetches the new ones.
+     * @return The number of first observations that were fetched.
+     */
+    private int fetchFirstObservations(INatQuery query, ResumableCalculator calculator, JobContext context,
+            SharedPages pages) {
+        // Probe the newest observation first, the observations added while fetching are left for the next calculation
+        List<Observation> newest = pages.fetch(query
+            .without("id_above")
+            .with("order_by", "id")
+            .with("order", "desc")
+            .with("per_page", 1)
+            .with("page", 1)).results();
+        int watermark = newest.isEmpty() ? 0 : newest.get(0).id();
+        log.debug("Fetching the observer counts from iNat...");
+        INatQuery observersQuery = query
+            .withPath("observations/observers")
+            .without("order")
+            .without("order_by")
+            .without("id_above")
+            .with("per_page", OBSERVERS_PER_PAGE);
+        int fetched = 0;
+        int page = 1;
+        int totalResults = OBSERVERS_PER_PAGE;
+        while ((page - 1) * OBSERVERS_PER_PAGE < totalResults && !calculator.isDone()) {
+            Observers observersPage = inatClient.fetch(observersQuery.with("page", page), Observers.class);
+            context.pageFetched();
+            totalResults = observersPage.total_results();
+            for (Observer observer : observersPage.results()) {
+                String login = observer.user().login().toLowerCase();
+                if (observer.observation_count() > 0 && calculator.wants(login)) {
+                    Observations first = pages.fetch(query
+                        .with("user_id", login)
+                        .with("order_by", "observed_on")
+                        .with("per_page", 1)
+                        .with("page", 1));
+                    calculator.accept(first.results());
+                    fetched++;
+                }
+            }
+            if (observersPage.results().isEmpty())
+                break;
+            page++;
+        }
+        // The observers that were not seen after stopping early cannot change the result either
+        calculator.coverUpTo(watermark);
+        return fetched;
     }
 
-    private String configureBaseQueryParams(UriComponentsBuilder builder, EventEntity event, int page) {
-        String inatUri = builder
-            .queryParam("page", page)
-            .queryParam("per_page", perPage)
-            .queryParam("order", "asc")
-            .queryParam("order_by", "observed_on")
-            .queryParam("d1", event.getStart())
-            .queryParam("d2", event.getStop())
-            .queryParam("user_id", event.getParticipants().replace("#", ""))
-            .toUriString();
-        log.info("Fetching results from iNaturalist using URL: {}", inatUri);
-        return inatUri;
+    private ResumableCalculator start(ActivityEntity activity, Participants participants, ActivityStep step) {
+        return new ResumableCalculator(begin(activity, participants, step), pipelineMetrics.getScoreStage());
+    }
+
+    /**
+     * The query that identifies the state of the step, a new calculation is needed when it changes.
+     */
+    private String stateQuery(EventEntity event, ActivityEntity activity, ActivityStep step) {
+        INatQuery query = observationsQuery(event, step, isKeyset()).with("state_version", STATE_VERSION);
+        for (Map.Entry<String, String> scoring : getScoringState(activity, step).entrySet()) {
+            query = query.with(scoring.getKey(), scoring.getValue());
+        }
+        return query.toUri();
+    }
+
+    /**
+     * The criteria of the step that are iNaturalist query params (without the scoring params).
+     */
+    private Map<String, String> queryCriteria(ActivityStep step) {
+        if (getScoringParams().stream().noneMatch(step.getCriteria()::containsKey))
+            return step.getCriteria();
+        Map<String, String> criteria = new HashMap<>(step.getCriteria());
+        criteria.keySet().removeAll(getScoringParams());
+        return criteria;
+    }
+
+    private boolean isKeyset() {
+        return paging == INatPaging.KEYSET || (paging == INatPaging.AUTO && !prefersObservedOrder());
+    }
+
+    private INatQuery observationsQuery(EventEntity event, ActivityStep step, boolean keyset) {
+        INatQuery query = INatQuery.of("observations", queryCriteria(step));
+        // Rather use the indexed taxon_id, so that iNaturalist does not need to resolve the name for every page
+        String taxonName = query.get("taxon_name");
+        if (taxonName != null && query.get("taxon_id") == null) {
+            String taxonIds = taxonResolver.resolveIds(taxonName);
+            if (taxonIds != null)
+                query = query.without("taxon_name").with("taxon_id", taxonIds);
+        }
+        return query
+            .with("per_page", perPage)
+            .with("order", "asc")
+            .with("order_by", keyset ? "id" : "observed_on")
+            .with("d1", event.getStart())
+            .with("d2", event.getStop())
+            .with("user_id", event.getParticipants().replace("#", ""));
+    }
+
+    /**
+     * Fetch the shards in parallel, while handing the pages to the calculator in shard (date) order. The first page
+     * of the whole query was already calculated, so the shards continue after it instead of fetching it again.
+     * @return The number of observations that were calculated.
+     */
+    private int fetchShards(List<INatQuery> shards, boolean keyset, List<Observation> firstPage, StepCalculator calculator,
+            ActivityStep step, int totalPages, JobContext context, SharedPages pages) throws InterruptedException {
+        log.debug("Fetching {} shards for step ({})...", shards.size(), step.getId());
+        Set<Integer> firstPageIds = firstPage.stream().map(Observation::id).collect(Collectors.toSet());
+        int lastFirstPageId = firstPage.isEmpty() ? 0 : firstPage.get(firstPage.size() - 1).id();
+        List<ObservationPager> pagers = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (keyset) { // The first page holds every observation (of every shard) up to its last id
+                pagers.add(new ObservationPager(pages, shards.get(shard), lastFirstPageId, perPage));
+            }
+            else { // The first page is the first page of the earliest shard, and can reach into the next shards
+                ObservationPager pager = new ObservationPager(pages, shards.get(shard), false, perPage);
+                if (shard == 0)
+                    pager.skipPages(1);
+                pagers.add(pager);
+            }
+        }
+        int observationCount = 0;
+        int pageCount = 1;
+        try (PageStreams streams = new PageStreams(pagers, perPage, shardConcurrency, pages.getPermits(), pipelineMetrics)) {
+            for (int shard = 0; shard < streams.size(); shard++) {
+                List<Observation> results;
+                while ((results = streams.take(shard)) != null) {
+                    if (!keyset && shard > 0)
+                        results = results.stream().filter(observation -> !firstPageIds.contains(observation.id())).toList();
+                    calculator.accept(results);
+                    observationCount += results.size();
+                    pageCount++;
+                    if (!keyset && calculator.isDone()) {
+                        skipPages(context, step, pageCount, totalPages - pageCount, streams.getPrefetchedPages());
+                        return observationCount;
+                    }
+                }
+            }
+        }
+        return observationCount;
     }
 
     protected abstract void doValidation(ActivityEntity activity);
 
-    protected abstract ActivityStepResult doCalculation(List<String> participants, ActivityStep step, List<Observation> observations);
-    
+    /**
+     * Start calculating the step. The returned calculator receives the observations one page at a time.
+     */
+    protected abstract StepCalculator begin(ActivityEntity activity, Participants participants, ActivityStep step);
+
+    /**
+     * The step criteria that configure the scoring instead of selecting the observations, they are not sent to
+     * iNaturalist.
+     */
+    protected Set<String> getScoringParams() {
+        return Set.of();
+    }
+
+    /**
+     * The scoring configuration of the step, the state of a previous calculation is only used while it stays the same.
+     */
+    protected Map<String, String> getScoringState(ActivityEntity activity, ActivityStep step) {
+        Map<String, String> state = new TreeMap<>();
+        for (String param : getScoringParams()) {
+            if (step.getCriteria().containsKey(param))
+                state.put(param, step.getCriteria().get(param));
+        }
+        return state;
+    }
+
+    /**
+     * Indicate that only the first observation (by observed date) of each participant counts towards the score.
+     * Such steps can be calculated from the observer counts, which also allows steps with more than the maximum
+     * number of results to be calculated.
+     */
+    protected boolean isScoredByFirstObservation() {
+        return false;
+    }
+
+    /**
+     * Indicate that the step calculators can stop early when the observations arrive in observed order.
+     * The calculators must still give the correct result when the observations arrive in any other order.
+     */
+    protected boolean prefersObservedOrder() {
+        return false;
+    }
+
+    /**
+     * Indicate that steps which differ only by their taxon_name can be calculated together, from a single query
+     * for all their taxa.
+     */
+    protected boolean isTaxonUnionSupported() {
+        return false;
+    }
+
+    private static class TooManyResultsException extends RuntimeException {
+
+        private final int totalResults;
+
+        TooManyResultsException(int totalResults) {
+            super("Too many results (" + totalResults + ")!");
+            this.totalResults = totalResults;
+        }
+
+        int getTotalResults() {
+            return totalResults;
+        }
+
+    }
+
 }
@@ -1,8 +1,8 @@
 package mywild.activity.calculate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -10,6 +10,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import mywild.activity.ActivityCalculation;
 import mywild.activity.ActivityEntity;
+import mywild.activity.ActivityRegion;
 import mywild.activity.ActivityStep;
 import mywild.activity.ActivityStepResult;
 import mywild.activity.calculate.inaturalist.Observation;
@@ -17,6 +18,12 @@ import mywild.core.error.BadRequestException;
 
 /**
  * Calculate the results of an Activity that is an "exploration" by making observations in grids.
+ * Each grid cell (or region) that a participant observed in scores a point.
+ * 
+ * Scoring Params:
+ *   - grid_rows (default 2, at most 64)
+ *   - grid_cols (default 2, at most 64)
+ *   - regions (the names of the Activity's regions to use instead of the grid)
  * 
  * Recommended iNat Query Params:
  *   - (REQUIRED) nelat
@@ -39,6 +46,16 @@ import mywild.core.error.BadRequestException;
 @Service
 public class CalculateExplore extends CalculateAbstract {
 
+    private static final String GRID_ROWS = "grid_rows";
+
+    private static final String GRID_COLS = "grid_cols";
+
+    private static final String REGIONS = "regions";
+
+    private static final int DEFAULT_GRID_SIZE = 2;
+
+    private static final int MAX_GRID_SIZE = 64;
+
     @Value("${mywild.wildevents.max-activity-steps}")
     private int maxSteps;
 
@@ -51,68 +68,226 @@ public class CalculateExplore extends CalculateAbstract {
                 throw new BadRequestException("The Explore Activity requires the 'nelat', 'nelng', 'swlat' and 'swlng' to be specified.");
             if (queryParamKeys.contains("lat") || queryParamKeys.contains("lng") || queryParamKeys.contains("radius"))
                 throw new BadRequestException("The Explore Activity does not support the use of 'lat', 'lng' and 'radius', use 'nelat', 'nelng', 'swlat' and 'swlng' instead.");
+            gridSize(step, GRID_ROWS);
+            gridSize(step, GRID_COLS);
+            if (queryParamKeys.contains(REGIONS)) {
+                if (queryParamKeys.contains(GRID_ROWS) || queryParamKeys.contains(GRID_COLS))
+                    throw new BadRequestException("The Explore Activity does not support the use of 'regions' together with 'grid_rows' or 'grid_cols'.");
+                for (ActivityRegion region : regions(activity, step)) {
+                    if (region.getPolygon() == null || region.getPolygon().size() < 3
+                            || region.getPolygon().stream().anyMatch(point -> point == null || point.size() != 2
+                                || point.get(0) == null || point.get(1) == null))
+                        throw new BadRequestException("The Explore Activity requires the region '" + region.getName() + "' to have at least 3 [lat, lng] points.");
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Set<String> getScoringParams() {
+        return Set.of(GRID_ROWS, GRID_COLS, REGIONS);
+    }
+
+    @Override
+    protected Map<String, String> getScoringState(ActivityEntity activity, ActivityStep step) {
+        Map<String, String> state = super.getScoringState(activity, step);
+        List<ActivityRegion> regions = regions(activity, step);
+        if (regions != null) // Editing the outlines of the regions also requires a new calculation
+            state.put("regions_hash", Integer.toHexString(regions.stream().map(ActivityRegion::getPolygon).toList().hashCode()));
+        return state;
+    }
+
+    /**
+     * @return The regions (of the Activity) that the step refers to, or null if the step uses a grid.
+     */
+    private static List<ActivityRegion> regions(ActivityEntity activity, ActivityStep step) {
+        String names = step.getCriteria().get(REGIONS);
+        if (names == null)
+            return null;
+        List<ActivityRegion> regions = new ArrayList<>();
+        for (String name : names.split(",")) {
+            ActivityRegion region = activity.getRegions() == null ? null : activity.getRegions().stream()
+                .filter(candidate -> name.trim().equalsIgnoreCase(candidate.getName()))
+                .findFirst()
+                .orElse(null);
+            if (region == null)
+                throw new BadRequestException("The Explore Activity refers to the region '" + name.trim() + "' that does not exist.");
+            regions.add(region);
         }
+        return regions;
+    }
+
+    private static int gridSize(ActivityStep step, String param) {
+        String value = step.getCriteria().get(param);
+        if (value == null)
+            return DEFAULT_GRID_SIZE;
+        try {
+            int size = Integer.parseInt(value.trim());
+            if (size >= 1 && size <= MAX_GRID_SIZE)
+                return size;
+        }
+        catch (NumberFormatException ex) {
+            // Reported below
+        }
+        throw new BadRequestException("The Explore Activity requires the '" + param + "' to be a number from 1 to " + MAX_GRID_SIZE + ".");
     }
 
     @Override
-    protected ActivityStepResult doCalculation(List<String> participants, ActivityStep step, List<Observation> observations) {
-        Map<String, ActivityCalculation> calculationResults = new HashMap<>(participants.size());
-        Map<String, String> criteria = step.getCriteria();
-        double neLat = Double.parseDouble(criteria.get("nelat"));
-        double neLng = Double.parseDouble(criteria.get("nelng"));
-        double swLat = Double.parseDouble(criteria.get("swlat"));
-        double swLng = Double.parseDouble(criteria.get("swlng"));
-        double deltaLat = (neLat - swLat) / 2.0;
-        double deltaLng = (neLng - swLng) / 2.0;
-        Set<String> q1 = new HashSet<>(participants.size());
-        Set<String> q2 = new HashSet<>(participants.size());
-        Set<String> q3 = new HashSet<>(participants.size());
-        Set<String> q4 = new HashSet<>(participants.size());
-        for (Observation observation : observations) {
-            String participant = observation.user().login().toLowerCase();
-            ActivityCalculation activityCalculation = calculationResults.get(participant);
-            if (activityCalculation == null) {
-                activityCalculation = new ActivityCalculation(0, new ArrayList<>(4));
-                calculationResults.put(participant, activityCalculation);
+    protected StepCalculator begin(ActivityEntity activity, Participants participants, ActivityStep step) {
+        return new ExploreCalculator(participants, step, regions(activity, step));
+    }
+
+    private static class ExploreCalculator implements StepCalculator {
+
+        private final Participants participants;
+
+        private final ActivityStep step;
+
+        private final double neLat;
+
+        private final double neLng;
+
+        private final double swLat;
+
+        private final double swLng;
+
+        private final int rows;
+
+        private final int cols;
+
+        private final double cellLat;
+
+        private final double cellLng;
+
+        private final RegionIndex regionIndex; // Null when using the grid
+
+        private final int[] foundRegions;
+
+        private final long[][] coverage; // The bitset of covered cells, by participant index
+
+        private final int[] scores; // By participant index
+
+        private ExploreCalculator(Participants participants, ActivityStep step, List<ActivityRegion> regions) {
+            this.participants = participants;
+            this.step = step;
+            Map<String, String> criteria = step.getCriteria();
+            neLat = Double.parseDouble(criteria.get("nelat"));
+            neLng = Double.parseDouble(criteria.get("nelng"));
+            swLat = Double.parseDouble(criteria.get("swlat"));
+            swLng = Double.parseDouble(criteria.get("swlng"));
+            rows = gridSize(step, GRID_ROWS);
+            cols = gridSize(step, GRID_COLS);
+            cellLat = (neLat - swLat) / rows;
+            cellLng = (neLng - swLng) / cols;
+            regionIndex = regions == null ? null : new RegionIndex(regions);
+            foundRegions = regions == null ? null : new int[regions.size()];
+            coverage = new long[participants.size()][];
+            scores = new int[participants.size()];
+        }
+
+        @Override
+        public void accept(List<Observation> observations) {
+            for (Observation observation : observations) {
+                int participant = participants.indexOf(observation);
+                if (participant < 0)
+                    continue;
+                if (regionIndex == null) {
+                    int cell = cell(observation.latitude(), observation.longitude());
+                    if (cell >= 0)
+                        cover(participant, cell);
+                }
+                else {
+                    int found = regionIndex.find(observation.latitude(), observation.longitude(), foundRegions);
+                    for (int i = 0; i < found; i++) {
+                        cover(participant, foundRegions[i]);
+                    }
+                }
+            }
+        }
+
+        private void cover(int participant, int cell) {
+            long[] covered = coverage[participant];
+            if (covered == null) {
+                covered = new long[words()];
+                coverage[participant] = covered;
             }
-            String[] location = observation.location().split(",");
-            double obsLat = Double.parseDouble(location[0]);
-            double obsLng = Double.parseDouble(location[1]);
-            if (!q1.contains(participant)
-                    && obsLat <= neLat && obsLat > (neLat - deltaLat)
-                    && obsLng <= neLng && obsLng >= (neLng - deltaLng)) {
-                q1.add(participant);
-                activityCalculation.setScore(activityCalculation.getScore() + 1);
-                activityCalculation.getObservations().add(observation.id());
+            long bit = 1L << (cell % Long.SIZE);
+            if ((covered[cell / Long.SIZE] & bit) == 0) {
+                covered[cell / Long.SIZE] |= bit;
+                scores[participant]++;
             }
-            if (!q2.contains(participant)
-                    && obsLat <= (swLat + deltaLat) && obsLat >= swLat
-                    && obsLng <= neLng && obsLng > (neLng - deltaLng)) {
-                q2.add(participant);
-                activityCalculation.setScore(activityCalculation.getScore() + 1);
-                activityCalculation.getObservations().add(observation.id());
+        }
+
+        private int words() {
+            int cellCount = regionIndex == null ? rows * cols : regionIndex.size();
+            return (cellCount + Long.SIZE - 1) / Long.SIZE;
+        }
+
+        /**
+         * @return The index of the grid cell (row by row, from the south-west) that the location falls in, or -1 if
+         * it is outside the box (or unknown).
+         */
+        private int cell(double lat, double lng) {
+            if (!(lat >= swLat && lat <= neLat && lng >= swLng && lng <= neLng)) // NaN fails every comparison
+                return -1;
+            int row = Math.min((int) ((lat - swLat) / cellLat), rows - 1); // The north and east edges belong to the last cells
+            int col = Math.min((int) ((lng - swLng) / cellLng), cols - 1);
+            return row * cols + col;
+        }
+
+        @Override
+        public ActivityStepResult finish() {
+            Map<String, ActivityCalculation> calculationResults = new HashMap<>(participants.size());
+            for (int participant = 0; participant < participants.size(); participant++) {
+                calculationResults.put(participants.login(participant),
+                    new ActivityCalculation(scores[participant], null, cells(coverage[participant])));
             }
-            if (!q3.contains(participant)
-                    && obsLat < (swLat + deltaLat) && obsLat >= swLat
-                    && obsLng <= (swLng + deltaLng) && obsLng >= swLng) {
-                q3.add(participant);
-                activityCalculation.setScore(activityCalculation.getScore() + 1);
-                activityCalculation.getObservations().add(observation.id());
+            return new ActivityStepResult(step.getId(), calculationResults);
+        }
+
+        private static List<Integer> cells(long[] covered) {
+            if (covered == null)
+                return null;
+            List<Integer> cells = new ArrayList<>();
+            for (int word = 0; word < covered.length; word++) {
+                long bits = covered[word];
+                while (bits != 0) {
+                    cells.add(word * Long.SIZE + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
             }
-            if (!q4.contains(participant)
-                    && obsLat <= neLat && obsLat >= (neLat - deltaLat)
-                    && obsLng < (swLng + deltaLng) && obsLng >= swLng) {
-                q4.add(participant);
-                activityCalculation.setScore(activityCalculation.getScore() + 1);
-                activityCalculation.getObservations().add(observation.id());
+            return cells;
+        }
+
+        /**
+         * The coverage is kept instead of the observations, at most one bit per cell for each participant.
+         */
+        @Override
+        public List<Observation> getResumeObservations() {
+            return null;
+        }
+
+        @Override
+        public Map<String, long[]> getResumeCoverage() {
+            Map<String, long[]> resume = new HashMap<>();
+            for (int participant = 0; participant < participants.size(); participant++) {
+                if (coverage[participant] != null)
+                    resume.put(participants.login(participant), Arrays.copyOf(coverage[participant], coverage[participant].length));
             }
+            return resume;
         }
-        if (calculationResults.size() < participants.size()) {
-            for (String participant : participants) {
-                calculationResults.putIfAbsent(participant, new ActivityCalculation(0, null));
+
+        @Override
+        public void resumeCoverage(Map<String, long[]> resume) {
+            for (Map.Entry<String, long[]> covered : resume.entrySet()) {
+                int participant = participants.indexOf(covered.getKey());
+                if (participant < 0 || covered.getValue().length != words())
+                    continue; // No longer a participant
+                coverage[participant] = Arrays.copyOf(covered.getValue(), covered.getValue().length);
+                scores[participant] = Arrays.stream(covered.getValue()).mapToInt(Long::bitCount).sum();
             }
         }
-        return new ActivityStepResult(step.getId(), calculationResults);
+
     }
 
 }
@@ -1,8 +1,10 @@
 package mywild.activity.calculate;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import org.springframework.stereotype.Service;
 import mywild.activity.ActivityCalculation;
@@ -54,19 +56,87 @@ public class CalculateHunt extends CalculateAbstract {
     }
 
     @Override
-    protected ActivityStepResult doCalculation(List<String> participants, ActivityStep step, List<Observation> observations) {
-        Map<String, ActivityCalculation> calculationResults = new HashMap<>(participants.size());
-        for (Observation observation : observations) {
-            String obsParticipant = observation.user().login().toLowerCase();
-            // TODO: Only gain points if the previous steps were completed
-            calculationResults.putIfAbsent(obsParticipant, new ActivityCalculation(1, List.of(observation.id())));
+    protected boolean isScoredByFirstObservation() {
+        return true;
+    }
+
+    @Override
+    protected boolean prefersObservedOrder() {
+        return true;
+    }
+
+    @Override
+    protected boolean isTaxonUnionSupported() {
+        return true;
+    }
+
+    @Override
+    protected StepCalculator begin(ActivityEntity activity, Participants participants, ActivityStep step) {
+        return new HuntCalculator(participants, step);
+    }
+
+    private static class HuntCalculator implements StepCalculator {
+
+        private final Participants participants;
+
+        private final ActivityStep step;
+
+        private final Observation[] firstObservations; // By participant index
+
+        private int remainingParticipants;
+
+        private HuntCalculator(Participants participants, ActivityStep step) {
+            this.participants = participants;
+            this.step = step;
+            this.firstObservations = new Observation[participants.size()];
+            this.remainingParticipants = participants.size();
         }
-        if (calculationResults.size() < participants.size()) {
-            for (String participant : participants) {
-                calculationResults.putIfAbsent(participant, new ActivityCalculation(0, null));
+
+        @Override
+        public void accept(List<Observation> observations) {
+            for (Observation observation : observations) {
+                int participant = participants.indexOf(observation);
+                if (participant < 0)
+                    continue;
+                // TODO: Only gain points if the previous steps were completed
+                // Keep the earliest observation, the pages are not always in observed order
+                Observation first = firstObservations[participant];
+                if (first == null)
+                    remainingParticipants--;
+                if (first == null || Observation.OBSERVED_ORDER.compare(observation, first) < 0)
+                    firstObservations[participant] = observation;
             }
         }
-        return new ActivityStepResult(step.getId(), calculationResults);
+
+        @Override
+        public boolean isDone() {
+            // Only the first observation of each participant scores (when the pages are in observed order)
+            return remainingParticipants == 0;
+        }
+
+        @Override
+        public boolean wants(String participant) {
+            int index = participants.indexOf(participant);
+            return index >= 0 && firstObservations[index] == null;
+        }
+
+        @Override
+        public ActivityStepResult finish() {
+            Map<String, ActivityCalculation> calculationResults = new HashMap<>(participants.size());
+            for (int participant = 0; participant < participants.size(); participant++) {
+                Observation first = firstObservations[participant];
+                calculationResults.put(participants.login(participant), first == null
+                    ? new ActivityCalculation(0, null, null)
+                    : new ActivityCalculation(1, List.of(first.id()), null));
+            }
+            return new ActivityStepResult(step.getId(), calculationResults);
+        }
+
+        @Override
+        public List<Observation> getResumeObservations() {
+            return Arrays.stream(firstObservations).filter(Objects::nonNull).toList();
+        }
+
     }
 
 }
@@ -1,10 +1,10 @@
 package mywild.activity.calculate;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import org.springframework.stereotype.Service;
 import mywild.activity.ActivityCalculation;
@@ -46,32 +46,83 @@ public class CalculateRace extends CalculateAbstract {
     }
 
     @Override
-    protected ActivityStepResult doCalculation(List<String> participants, ActivityStep step, List<Observation> observations) {
-        List<Observation> scoringObservations = new ArrayList<>(POINT_POSITIONS);
-        Set<String> scoringParticipants = new HashSet<>(POINT_POSITIONS);
-        for (Observation observation : observations) {
-            String obsParticipant = observation.user().login().toLowerCase();
-            if (!scoringParticipants.contains(obsParticipant)) {
-                scoringParticipants.add(obsParticipant);
-                scoringObservations.add(observation);
+    protected boolean prefersObservedOrder() {
+        return true;
+    }
+
+    @Override
+    protected StepCalculator begin(ActivityEntity activity, Participants participants, ActivityStep step) {
+        return new RaceCalculator(participants, step);
+    }
+
+    private static class RaceCalculator implements StepCalculator {
+
+        private final Participants participants;
+
+        private final ActivityStep step;
+
+        private final Observation[] firstObservations; // By participant index
+
+        private int observedParticipants = 0;
+
+        private RaceCalculator(Participants participants, ActivityStep step) {
+            this.participants = participants;
+            this.step = step;
+            this.firstObservations = new Observation[participants.size()];
+        }
+
+        @Override
+        public void accept(List<Observation> observations) {
+            for (Observation observation : observations) {
+                int participant = participants.indexOf(observation);
+                if (participant < 0)
+                    continue;
+                // Keep the earliest observation, the pages are not always in observed order
+                Observation first = firstObservations[participant];
+                if (first == null)
+                    observedParticipants++;
+                if (first == null || Observation.OBSERVED_ORDER.compare(observation, first) < 0)
+                    firstObservations[participant] = observation;
             }
-            if (scoringObservations.size() >= POINT_POSITIONS)
-                break;
         }
-        Map<String, ActivityCalculation> calculationResults = new HashMap<>(participants.size());
-        for (String participant : participants) {
-            calculationResults.put(participant, new ActivityCalculation(0, null));
+
+        @Override
+        public boolean isDone() {
+            // When the pages are in observed order, the first participants to be seen fill the podium
+            return observedParticipants >= POINT_POSITIONS;
         }
-        for (int i = 0; i < scoringObservations.size(); i++) {
-            Observation observation = scoringObservations.get(i);
-            String obsParticipant = observation.user().login().toLowerCase();
-            ActivityCalculation calculation = calculationResults.get(obsParticipant);
-            calculation.setScore(calculation.getScore() + (POINT_POSITIONS - i));
-            if (calculation.getObservations() == null)
-                calculation.setObservations(new ArrayList<>(POINT_POSITIONS));
-            calculation.getObservations().add(observation.id());
+
+        @Override
+        public ActivityStepResult finish() {
+            int[] scores = new int[participants.size()];
+            IntList[] scoringIds = new IntList[participants.size()];
+            List<Observation> podium = getResumeObservations();
+            for (int i = 0; i < podium.size(); i++) {
+                Observation observation = podium.get(i);
+                int participant = participants.indexOf(observation);
+                scores[participant] += POINT_POSITIONS - i;
+                if (scoringIds[participant] == null)
+                    scoringIds[participant] = new IntList(POINT_POSITIONS);
+                scoringIds[participant].add(observation.id());
+            }
+            Map<String, ActivityCalculation> calculationResults = new HashMap<>(participants.size());
+            for (int participant = 0; participant < participants.size(); participant++) {
+                calculationResults.put(participants.login(participant), new ActivityCalculation(scores[participant],
+                    scoringIds[participant] == null ? null : scoringIds[participant].toList(), null));
+            }
+            return new ActivityStepResult(step.getId(), calculationResults);
+        }
+
+        @Override
+        public List<Observation> getResumeObservations() {
+            // Only the podium matters, later observations can push participants off it but not back onto it
+            return Arrays.stream(firstObservations)
+                .filter(Objects::nonNull)
+                .sorted(Observation.OBSERVED_ORDER)
+                .limit(POINT_POSITIONS)
+                .toList();
         }
-        return new ActivityStepResult(step.getId(), calculationResults);
+
     }
 
 }
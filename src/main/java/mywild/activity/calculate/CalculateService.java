@@ -1,16 +1,45 @@
 package mywild.activity.calculate;
 
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 import com.azure.cosmos.implementation.NotFoundException;
+import com.azure.cosmos.models.PartitionKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
 import mywild.activity.ActivityEntity;
+import mywild.activity.ActivityRepository;
+import mywild.activity.ActivityStatus;
+import mywild.activity.ActivityStep;
+import mywild.activity.calculate.inaturalist.Observation;
 import mywild.core.error.BadRequestException;
+import mywild.core.error.TooManyRequestsException;
 import mywild.event.EventEntity;
 import mywild.event.EventRepository;
+import mywild.job.Job;
+import mywild.job.JobContext;
+import mywild.job.JobService;
+import mywild.job.JobType;
 
 @Slf4j
 @Validated
@@ -20,6 +49,30 @@ public class CalculateService {
     @Autowired
     private EventRepository eventRepo;
 
+    @Autowired
+    private ActivityRepository activityRepo;
+
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private INatClient inatClient;
+
+    @Autowired
+    private ObservationCache observationCache;
+
+    @Autowired
+    private LocalObservationStore localStore;
+
+    @Autowired
+    private OffHeapBudget offHeapBudget;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Autowired
     private CalculateRace calculateRace;
 
@@ -32,32 +85,248 @@ public class CalculateService {
     @Autowired
     private CalculateExplore calculateExplore;
 
-    // TODO: Implement better queuing than using synchronized
-    //       add activities to a list/queue [LinkedBlockingQueue] and use schedular [@Scheduled(fixedRate = 1000)]
-    //       but aso how to limit the 5 inat calls per activity?? (maybe just space activity schedules 5 seconds apart?) 
+    @Value("${mywild.wildevents.calculate-event-concurrency}")
+    private int eventConcurrency;
+
+    @Value("${mywild.wildevents.calculate-resume-on-startup}")
+    private boolean resumeOnStartup;
+
+    @Value("${mywild.wildevents.calculate-stale-seconds}")
+    private int staleSeconds;
+
+    @Value("${mywild.wildevents.calculate-deadline-minutes.race}")
+    private int raceDeadlineMinutes;
 
-    public synchronized ActivityEntity calculateActivity(@NotNull ActivityEntity activity) {
+    @Value("${mywild.wildevents.calculate-deadline-minutes.hunt}")
+    private int huntDeadlineMinutes;
+
+    @Value("${mywild.wildevents.calculate-deadline-minutes.quiz}")
+    private int quizDeadlineMinutes;
+
+    @Value("${mywild.wildevents.calculate-deadline-minutes.explore}")
+    private int exploreDeadlineMinutes;
+
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "calculate-deadlines"));
+
+    private Counter pagesDeduplicated;
+
+    @PreDestroy
+    private void shutdown() {
+        deadlines.shutdownNow();
+    }
+
+    @PostConstruct
+    private void init() {
+        pagesDeduplicated = Counter.builder("inat.pages.deduplicated")
+            .description("The number of iNaturalist pages that were shared between steps with the same query, instead of being fetched again.")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Continue the calculations that were orphaned when an application instance stopped, from their saved checkpoints.
+     * Calculations that another instance is still running (that recently saved their heartbeat) are left alone,
+     * and are checked again once their heartbeat would become stale.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeCalculations() {
+        if (!resumeOnStartup)
+            return;
+        for (ActivityEntity activity : activityRepo.findAllByStatus(ActivityStatus.CALCULATING)) {
+            resumeWhenStale(activity.getId());
+        }
+    }
+
+    private void resumeWhenStale(String activityId) {
+        try {
+            Optional<ActivityEntity> found = activityRepo.findById(activityId);
+            if (!found.isPresent() || found.get().getStatus() != ActivityStatus.CALCULATING)
+                return;
+            ActivityEntity activity = found.get();
+            if (activity.getCalculatingNode() != null && activity.getHeartbeat() != null) {
+                long staleInSeconds = staleSeconds - Duration.between(activity.getHeartbeat(), ZonedDateTime.now()).toSeconds();
+                if (staleInSeconds > 0) {
+                    log.debug("Not resuming the calculation of Activity ({}), node ({}) is still calculating it.",
+                        activityId, activity.getCalculatingNode());
+                    deadlines.schedule(() -> resumeWhenStale(activityId), staleInSeconds, TimeUnit.SECONDS);
+                    return;
+                }
+            }
+            Job job = queueActivity(activity, false, null, null);
+            log.info("Resuming the calculation of Activity ({}) in Job ({}).", activityId, job.getId());
+        }
+        catch (TooManyRequestsException ex) {
+            log.warn("Could not resume the calculation of Activity ({}), the queue is full.", activityId);
+        }
+        catch (RuntimeException ex) {
+            log.warn("Could not resume the calculation of Activity ({}): {}", activityId, ex.getMessage());
+        }
+    }
+
+    public Job queueActivity(@NotNull ActivityEntity activity, boolean rebuild, String userId, String idempotencyKey) {
+        return jobService.submit(JobType.ACTIVITY, activity.getEventId(), activity.getId(), rebuild, userId, idempotencyKey, context -> {
+            try (SharedPages pages = sharePages(List.of(activity), context)) {
+                syncLocalObservations(findEvent(activity), List.of(activity), pages, rebuild);
+                ActivityEntity calculated = calculateActivity(activity, context, pages, rebuild);
+                // Also when it was cancelled before it started (or while waiting for another Job), without being saved as cancelled
+                if (calculated.getStatus() == ActivityStatus.CANCELLED || context.getCancelReason(activity.getId()) != null)
+                    throw new CancellationException(context.getCancelReason(activity.getId()));
+                if (activity.getDisableReason() == null && calculated.getStatus() == ActivityStatus.ERROR)
+                    throw new IllegalStateException("Failed to calculate the Activity (" + calculated.getDisableReason() + ")!");
+            }
+        });
+    }
+
+    public Job queueEvent(@NotNull EventEntity event, boolean rebuild, String userId, String idempotencyKey) {
+        return jobService.submit(JobType.EVENT, event.getId(), null, rebuild, userId, idempotencyKey, context -> {
+            List<ActivityEntity> activities = new ArrayList<>();
+            activityRepo.findAll(new PartitionKey(event.getId())).forEach(activities::add);
+            List<String> failed = new ArrayList<>();
+            try (SharedPages pages = sharePages(activities, context)) {
+                syncLocalObservations(event, activities, pages, rebuild);
+                List<Boolean> enabled = activities.stream().map(activity -> activity.getDisableReason() == null).toList();
+                List<ActivityEntity> calculated = calculateActivities(activities, context, pages, rebuild);
+                for (int i = 0; i < calculated.size(); i++) {
+                    if (enabled.get(i) && calculated.get(i).getStatus() == ActivityStatus.ERROR)
+                        failed.add(calculated.get(i).getName());
+                }
+            }
+            if (!failed.isEmpty())
+                throw new IllegalStateException("Failed to calculate the Activities: " + String.join(", ", failed));
+        });
+    }
+
+    /**
+     * Calculate the Activities of the Event at the same time (on virtual threads), their work shares the permits of the
+     * Job, so that at most eventConcurrency steps (or Activities being prepared) of the Event run at a time.
+     * Each Activity keeps its own status, when the Job is stopped the remaining Activities are stopped as well.
+     * @return The calculated Activities, in the same order.
+     */
+    private List<ActivityEntity> calculateActivities(List<ActivityEntity> activities, JobContext context,
+            SharedPages pages, boolean rebuild) {
+        List<Future<ActivityEntity>> running = new ArrayList<>(activities.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ActivityEntity activity : activities) {
+                running.add(executor.submit(() -> calculateActivity(activity, context, pages, rebuild)));
+            }
+            List<ActivityEntity> calculated = new ArrayList<>(activities.size());
+            try {
+                for (Future<ActivityEntity> activity : running) {
+                    calculated.add(activity.get());
+                }
+            }
+            catch (InterruptedException ex) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The calculation of the Event was interrupted!", ex);
+            }
+            catch (ExecutionException ex) {
+                executor.shutdownNow();
+                throw new IllegalStateException("Failed to calculate the Activities: " + ex.getCause().getMessage(), ex.getCause());
+            }
+            return calculated;
+        }
+    }
+
+    /**
+     * Register the queries of all the steps that will be calculated, so that identical queries are only fetched once.
+     */
+    private SharedPages sharePages(List<ActivityEntity> activities, JobContext context) {
+        SharedPages pages = new SharedPages(inatClient, observationCache, context, pagesDeduplicated, eventConcurrency,
+            new PersistQueue(activityRepo, pipelineMetrics));
+        for (ActivityEntity activity : activities) {
+            if (activity.getDisableReason() == null) {
+                EventEntity event = findEvent(activity);
+                Participants participants = pages.getParticipants(event);
+                for (ActivityStep step : activity.getSteps()) {
+                    pages.addConsumer(activity.getId(), step.getId(), calculator(activity).stepQueries(event, participants, step));
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Sync the local observations of the Event, unless none of the steps can be calculated from them.
+     */
+    private void syncLocalObservations(EventEntity event, List<ActivityEntity> activities, SharedPages pages, boolean rebuild) {
+        try {
+            if (activities.stream().noneMatch(activity -> activity.getDisableReason() == null && calculator(activity).hasLocalSteps(activity))) {
+                log.debug("Not syncing the local observations of Event ({}), none of the steps can use them", event.getId());
+                return;
+            }
+            List<Observation> observations = localStore.sync(event, pages, rebuild);
+            if (observations != null) {
+                ObservationBuffer buffer = ObservationBuffer.of(observations, offHeapBudget);
+                pipelineMetrics.bufferCreated(buffer);
+                pages.setLocalObservations(buffer);
+            }
+        }
+        catch (RuntimeException ex) {
+            log.warn("Failed to sync the local observations of Event ({}), querying iNaturalist per step instead: {}",
+                event.getId(), ex.getMessage());
+        }
+    }
+
+    /**
+     * Forget the cached iNaturalist results of the Event, so that the next calculation fetches the latest observations.
+     */
+    public void clearCache(@NotNull String eventId) {
+        observationCache.invalidate(eventId);
+        localStore.delete(eventId);
+    }
+
+    /**
+     * Calculate the Activity, continuing from its previous calculation (only fetching the new observations)
+     * unless a full rebuild is requested.
+     */
+    public ActivityEntity calculateActivity(@NotNull ActivityEntity activity, @NotNull JobContext context,
+            @NotNull SharedPages pages, boolean rebuild) {
         log.debug("Preparing to calculate activity ({})", activity.getId());
-        if (activity.getDisableReason() == null) {
-            Optional<EventEntity> foundEvent = eventRepo.findById(activity.getEventId());
-            if (!foundEvent.isPresent())
-                throw new NotFoundException("The Event associated with this Activity cannot be found!");
-            EventEntity event = foundEvent.get();
-            switch (activity.getType()) {
-                case RACE:
-                    activity = calculateRace.process(event, activity);
-                    break;
-                case HUNT:
-                    activity = calculateHunt.process(event, activity);
-                    break;
-                case QUIZ:
-                    activity = calculateQuiz.process(event, activity);
-                    break;
-                case EXPLORE:
-                    activity = calculateExplore.process(event, activity);
-                    break;
-                default:
-                    throw new BadRequestException("Could not calculate the Activity!");
+        String activityId = activity.getId();
+        if (context.getCancelReason(activityId) != null) {
+            log.info("Skipped calculating of cancelled Activity ({}).", activityId);
+            pages.releaseAll(activityId);
+        }
+        else if (activity.getDisableReason() == null) {
+            context.startActivity(activityId);
+            boolean claimed = false;
+            ScheduledFuture<?> deadline = null;
+            try {
+                boolean waited = jobService.claimActivity(activityId);
+                claimed = true;
+                if (context.getCancelReason(activityId) != null) {
+                    log.info("Skipped calculating of Activity ({}), it was cancelled while waiting for another Job.", activityId);
+                    return activity;
+                }
+                if (waited) {
+                    // Another Job calculated the Activity in the meantime, continue from its results
+                    Optional<ActivityEntity> latest = activityRepo.findById(activityId);
+                    if (!latest.isPresent() || latest.get().getDisableReason() != null) {
+                        log.info("Skipped calculating of Activity ({}), it was deleted or disabled.", activityId);
+                        return activity;
+                    }
+                    activity = latest.get();
+                }
+                int deadlineMinutes = deadlineMinutes(activity);
+                if (deadlineMinutes > 0)
+                    deadline = deadlines.schedule(
+                        () -> context.cancelActivity(activityId, "The calculation took longer than " + deadlineMinutes + " minutes."),
+                        deadlineMinutes, TimeUnit.MINUTES);
+                activity = calculator(activity).process(findEvent(activity), activity, context, pages, rebuild);
+            }
+            catch (InterruptedException ex) {
+                if (context.getCancelReason(activityId) == null)
+                    Thread.currentThread().interrupt();
+                log.info("Skipped calculating of Activity ({}), it was stopped while waiting for another Job.", activityId);
+            }
+            finally {
+                if (deadline != null)
+                    deadline.cancel(false);
+                context.finishActivity(activityId);
+                pages.releaseAll(activityId); // The steps that were not calculated
+                if (claimed)
+                    jobService.releaseActivity(activityId);
             }
         }
         else {
@@ -67,4 +336,48 @@ public class CalculateService {
         return activity;
     }
 
+    /**
+     * Stop the queued and running calculations of the Event (or only of the Activity), and wait for them to stop.
+     */
+    public void cancel(@NotNull String eventId, String activityId, @NotNull String reason) {
+        jobService.cancel(eventId, activityId, reason);
+    }
+
+    private int deadlineMinutes(ActivityEntity activity) {
+        switch (activity.getType()) {
+            case RACE:
+                return raceDeadlineMinutes;
+            case HUNT:
+                return huntDeadlineMinutes;
+            case QUIZ:
+                return quizDeadlineMinutes;
+            case EXPLORE:
+                return exploreDeadlineMinutes;
+            default:
+                return 0;
+        }
+    }
+
+    private EventEntity findEvent(ActivityEntity activity) {
+        Optional<EventEntity> foundEvent = eventRepo.findById(activity.getEventId());
+        if (!foundEvent.isPresent())
+            throw new NotFoundException("The Event associated with this Activity cannot be found!");
+        return foundEvent.get();
+    }
+
+    private CalculateAbstract calculator(ActivityEntity activity) {
+        switch (activity.getType()) {
+            case RACE:
+                return calculateRace;
+            case HUNT:
+                return calculateHunt;
+            case QUIZ:
+                return calculateQuiz;
+            case EXPLORE:
+                return calculateExplore;
+            default:
+                throw new BadRequestException("Could not calculate the Activity!");
+        }
+    }
+
 }
@@ -0,0 +1,49 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import mywild.activity.ActivityStepState;
+
+/**
+ * The progress of the steps that are still being calculated. The steps update their checkpoint after each page,
+ * and the Activity saves the checkpoints now and then, so that a calculation that was stopped (for example by a
+ * restart) can continue from the last saved checkpoint instead of starting over.
+ * <p>
+ * Only pages that arrive in id order are checkpointed, the watermark of such a checkpoint means the same as the
+ * watermark of a finished step: all the observations up to it have been calculated.
+ */
+class Checkpoints {
+
+    private final Map<String, String> queries = new ConcurrentHashMap<>();
+
+    private final Map<String, ActivityStepState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Allow the step to be checkpointed, using the state query that identifies the calculation of the step.
+     */
+    void track(String stepId, String query) {
+        queries.put(stepId, query);
+    }
+
+    void update(String stepId, ResumableCalculator calculator) {
+        String query = queries.get(stepId);
+        if (query != null) {
+            states.put(stepId, calculator.toState(stepId, query));
+        }
+    }
+
+    /**
+     * The step is done, its final state replaces the checkpoint.
+     */
+    void finish(String stepId) {
+        queries.remove(stepId);
+        states.remove(stepId);
+    }
+
+    List<ActivityStepState> take() {
+        return new ArrayList<>(states.values());
+    }
+
+}
@@ -0,0 +1,80 @@
+package mywild.activity.calculate;
+
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observations;
+
+/**
+ * Sends the queries to the iNaturalist API, each request waiting for a permit from the shared rate limiter.
+ */
+@Slf4j
+@Service
+public class INatClient {
+
+    private static final String BASE_URL = "https://api.inaturalist.org/v1/";
+
+    private final RestClient restClient = RestClient.create(BASE_URL);
+
+    private final ObservationsDecoder observationsDecoder = new ObservationsDecoder();
+
+    @Autowired
+    private INatRateLimiter rateLimiter;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    public <T> T fetch(INatQuery query, Class<T> type) {
+        return send(query, inatUri -> restClient
+            .get()
+            .uri(inatUri)
+            .retrieve()
+            .body(type)); // To see the full JSON use: body(String.class)
+    }
+
+    /**
+     * Fetch a page of observations, decoding only the fields that are used while the response streams in.
+     * The fetch stage is timed once the permit was granted, the waiting is timed by the rate limiter.
+     */
+    public Observations fetchObservations(INatQuery query) {
+        return send(query, inatUri -> pipelineMetrics.getFetchStage().record(() -> restClient
+            .get()
+            .uri(inatUri)
+            .exchange((request, response) -> {
+                if (response.getStatusCode().isError())
+                    throw new IllegalStateException("iNaturalist responded with " + response.getStatusCode() + "!");
+                return observationsDecoder.decode(response.getBody());
+            })));
+    }
+
+    /**
+     * Count the observations matching the query, without fetching any of them (per_page=0).
+     */
+    public int count(INatQuery query) {
+        return fetchObservations(query.without("page").without("id_above").with("per_page", 0)).total_results();
+    }
+
+    private <T> T send(INatQuery query, Function<String, T> request) {
+        try {
+            log.debug("Wait for a permit before fetching, in order to limit the requests per minute sent to iNaturalist...");
+            rateLimiter.acquire();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to fetch from iNaturalist!", ex);
+        }
+        String inatUri = query.toUri();
+        log.info("Fetching results from iNaturalist using URL: {}", inatUri);
+        try {
+            return request.apply(inatUri);
+        }
+        catch (Throwable ex) {
+            log.error("Failed Query: {}", BASE_URL + inatUri);
+            throw ex;
+        }
+    }
+
+}
@@ -0,0 +1,7 @@
+package mywild.activity.calculate;
+
+public enum INatPaging {
+    PAGE, // Page numbers in observed order, allows calculations to stop early but deep pages are slow
+    KEYSET, // Walk the ids (id_above) in id order, pages are constant-cost and stable during long fetches
+    AUTO // Use PAGE for calculations that can stop early and KEYSET for the others
+}
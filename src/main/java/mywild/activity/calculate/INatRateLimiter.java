@@ -0,0 +1,101 @@
+package mywild.activity.calculate;
+
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Token bucket that governs all requests sent to iNaturalist by this process.
+ *
+ * The bucket holds up to "burst" permits and is refilled at the sustained "requests per minute" rate.
+ * A caller reserves a permit first and then waits for it to become available, so concurrent callers
+ * are served in the order that they asked.
+ */
+@Slf4j
+@Service
+public class INatRateLimiter {
+
+    @Value("${mywild.wildevents.inat-requests-burst}")
+    private int burst;
+
+    @Value("${mywild.wildevents.inat-requests-per-minute}")
+    private int requestsPerMinute;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private double nanosPerPermit;
+
+    private double tokens; // Negative when callers are waiting for reserved permits
+
+    private long lastRefill;
+
+    private Counter permitsGranted;
+
+    private Timer permitWait;
+
+    @PostConstruct
+    private void init() {
+        nanosPerPermit = TimeUnit.MINUTES.toNanos(1) / (double) requestsPerMinute;
+        tokens = burst;
+        lastRefill = System.nanoTime();
+        permitsGranted = Counter.builder("inat.ratelimit.permits")
+            .description("The number of iNaturalist request permits that were granted.")
+            .register(meterRegistry);
+        permitWait = Timer.builder("inat.ratelimit.wait")
+            .description("The time spent waiting for an iNaturalist request permit.")
+            .register(meterRegistry);
+        Gauge.builder("inat.ratelimit.tokens", this, INatRateLimiter::getTokens)
+            .description("The current number of tokens in the bucket (negative when permits are reserved).")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Block until a permit to send a request to iNaturalist is available.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            log.trace("Waiting {}ms for an iNaturalist request permit...", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            catch (InterruptedException ex) {
+                unreserve(); // The request will not be sent, so the other callers can use the permit
+                throw ex;
+            }
+        }
+        permitWait.record(waitNanos, TimeUnit.NANOSECONDS);
+        permitsGranted.increment();
+    }
+
+    public synchronized double getTokens() {
+        refill();
+        return tokens;
+    }
+
+    private synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens * nanosPerPermit);
+    }
+
+    private synchronized void unreserve() {
+        refill();
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) / nanosPerPermit);
+        lastRefill = now;
+    }
+
+}
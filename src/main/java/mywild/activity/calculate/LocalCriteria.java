@@ -0,0 +1,109 @@
+package mywild.activity.calculate;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import mywild.activity.calculate.inaturalist.Taxon;
+
+/**
+ * Evaluates the step criteria against locally stored observations, for the subset of the iNaturalist query params
+ * that can be answered from the observations themselves. The filter reads the observations through the cursor of
+ * the local ObservationBuffer.
+ */
+class LocalCriteria {
+
+    private static final Set<String> SUPPORTED_PARAMS = Set.of(
+        "taxon_name", "taxon_id",
+        "nelat", "nelng", "swlat", "swlng",
+        "lat", "lng", "radius",
+        "quality_grade", "captive");
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private LocalCriteria() {
+    }
+
+    /**
+     * Build the filter that selects the same observations as iNaturalist would for the criteria.
+     * @return The filter, or null if the criteria cannot be evaluated locally.
+     */
+    static Predicate<ObservationBuffer.Cursor> of(Map<String, String> criteria, TaxonResolver taxonResolver) {
+        if (!SUPPORTED_PARAMS.containsAll(criteria.keySet()))
+            return null;
+        Predicate<ObservationBuffer.Cursor> filter = observation -> true;
+        if (criteria.containsKey("taxon_name") || criteria.containsKey("taxon_id")) {
+            Set<Integer> taxonIds = new HashSet<>();
+            if (criteria.containsKey("taxon_id")) {
+                for (String taxonId : criteria.get("taxon_id").split(",")) {
+                    taxonIds.add(Integer.parseInt(taxonId.trim()));
+                }
+            }
+            if (criteria.containsKey("taxon_name")) {
+                List<Taxon> taxa = taxonResolver.resolve(criteria.get("taxon_name"));
+                if (taxa.isEmpty())
+                    return null;
+                taxa.forEach(taxon -> taxonIds.add(taxon.id()));
+            }
+            filter = filter.and(observation -> isInTaxa(observation, taxonIds));
+        }
+        if (criteria.containsKey("nelat") || criteria.containsKey("nelng")
+                || criteria.containsKey("swlat") || criteria.containsKey("swlng")) {
+            if (!criteria.containsKey("nelat") || !criteria.containsKey("nelng")
+                    || !criteria.containsKey("swlat") || !criteria.containsKey("swlng"))
+                return null;
+            double neLat = Double.parseDouble(criteria.get("nelat"));
+            double neLng = Double.parseDouble(criteria.get("nelng"));
+            double swLat = Double.parseDouble(criteria.get("swlat"));
+            double swLng = Double.parseDouble(criteria.get("swlng"));
+            filter = filter.and(observation -> {
+                if (!observation.hasLocation() || observation.latitude() < swLat || observation.latitude() > neLat)
+                    return false;
+                if (swLng <= neLng)
+                    return observation.longitude() >= swLng && observation.longitude() <= neLng;
+                return observation.longitude() >= swLng || observation.longitude() <= neLng; // The box crosses the antimeridian
+            });
+        }
+        if (criteria.containsKey("lat") || criteria.containsKey("lng") || criteria.containsKey("radius")) {
+            if (!criteria.containsKey("lat") || !criteria.containsKey("lng") || !criteria.containsKey("radius"))
+                return null;
+            double lat = Double.parseDouble(criteria.get("lat"));
+            double lng = Double.parseDouble(criteria.get("lng"));
+            double radius = Double.parseDouble(criteria.get("radius"));
+            filter = filter.and(observation -> observation.hasLocation()
+                && distanceKm(lat, lng, observation.latitude(), observation.longitude()) <= radius);
+        }
+        if (criteria.containsKey("quality_grade")) {
+            Set<String> grades = Set.copyOf(Arrays.asList(criteria.get("quality_grade").split(",")));
+            filter = filter.and(observation -> grades.contains(observation.qualityGrade()));
+        }
+        if (criteria.containsKey("captive")) {
+            boolean captive = Boolean.parseBoolean(criteria.get("captive"));
+            filter = filter.and(observation -> observation.captive() == captive);
+        }
+        return filter;
+    }
+
+    private static boolean isInTaxa(ObservationBuffer.Cursor observation, Set<Integer> taxonIds) {
+        if (!observation.hasTaxon())
+            return false;
+        if (taxonIds.contains(observation.taxonId()))
+            return true;
+        for (int i = 0; i < observation.ancestryLength(); i++) {
+            if (taxonIds.contains(observation.ancestor(i)))
+                return true;
+        }
+        return false;
+    }
+
+    private static double distanceKm(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+
+}
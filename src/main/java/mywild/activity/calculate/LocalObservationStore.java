@@ -0,0 +1,195 @@
+package mywild.activity.calculate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+import mywild.event.EventEntity;
+
+/**
+ * Keeps all the observations that the participants made during an Event on local disk, so that the steps of all the
+ * Activities can be evaluated locally, instead of each step querying iNaturalist.
+ *
+ * After the first sync only the observations that were added or updated (re-identified, graded, etc.) since the
+ * previous sync are fetched. When the count no longer matches (observations were deleted, or moved out of the Event's
+ * dates) all the observations are synced again.
+ */
+@Slf4j
+@Service
+public class LocalObservationStore {
+
+    private static final int STORE_VERSION = 2; // Increase when the stored observations change format
+
+    private static final int UPDATE_MARGIN_MINUTES = 5; // iNaturalist can take a moment to index the updates
+
+    @Value("${mywild.wildevents.local-store-dir}")
+    private String storeDir;
+
+    @Value("${mywild.wildevents.max-local-store-observations}")
+    private int maxObservations;
+
+    @Value("${mywild.wildevents.inat-results-per-page}")
+    private int perPage;
+
+    @Value("${mywild.wildevents.inat-participants-per-query}")
+    private int participantsPerQuery;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Bring the local observations of the Event up to date.
+     * @return All the observations of the participants during the Event, or null if the Event has too many
+     *         observations to keep locally (or the store is disabled).
+     */
+    List<Observation> sync(EventEntity event, SharedPages pages, boolean rebuild) {
+        if (maxObservations <= 0)
+            return null;
+        INatQuery query = INatQuery.of("observations", Map.of())
+            .with("per_page", perPage)
+            .with("order", "asc")
+            .with("order_by", "id")
+            .with("d1", event.getStart())
+            .with("d2", event.getStop())
+            .with("user_id", event.getParticipants().replace("#", ""));
+        Path file = file(event.getId());
+        StoredObservations stored = rebuild ? null : read(file);
+        if (stored != null && (stored.version() != STORE_VERSION || !stored.query().equals(query.toUri())))
+            stored = null; // Stored in an older format, or the participants or dates changed
+        List<INatQuery> chunks = chunkQueries(query, event);
+        Instant synced = Instant.now();
+        Map<Integer, Observation> observations = new LinkedHashMap<>();
+        if (stored != null) {
+            log.debug("Syncing the local observations of Event ({}) updated since ({})...", event.getId(), stored.synced());
+            stored.observations().forEach(observation -> observations.put(observation.id(), observation));
+            Instant updatedSince = stored.synced().minus(UPDATE_MARGIN_MINUTES, ChronoUnit.MINUTES);
+            if (!fetch(event, chunks.stream().map(chunk -> chunk.with("updated_since", updatedSince)).toList(), observations, pages))
+                return null;
+            if (count(chunks, pages) != observations.size()) {
+                log.debug("Observations of Event ({}) were deleted or moved, syncing all of them again", event.getId());
+                observations.clear();
+                stored = null;
+            }
+        }
+        if (stored == null) {
+            log.debug("Syncing all the local observations of Event ({})...", event.getId());
+            if (!fetch(event, chunks, observations, pages))
+                return null;
+        }
+        List<Observation> syncedObservations = new ArrayList<>(observations.values());
+        write(file, new StoredObservations(STORE_VERSION, query.toUri(), synced, syncedObservations));
+        log.debug("Synced {} local observations of Event ({})", syncedObservations.size(), event.getId());
+        return syncedObservations;
+    }
+
+    /**
+     * Fetch the observations of the queries (by keyset), replacing the observations that are already known.
+     * @return False if the Event has too many observations to keep locally.
+     */
+    private boolean fetch(EventEntity event, List<INatQuery> queries, Map<Integer, Observation> observations,
+            SharedPages pages) {
+        for (INatQuery query : queries) {
+            // Cached pages could be older than the sync time, which would skip their updates on the next sync
+            ObservationPager pager = new ObservationPager(pages, query, true, perPage).uncached();
+            Observations observationsPage;
+            while ((observationsPage = pager.next()) != null) {
+                for (Observation observation : observationsPage.results()) {
+                    observations.put(observation.id(), observation);
+                }
+                if (pager.getTotalResults() > maxObservations || observations.size() > maxObservations) {
+                    log.debug("The Event ({}) has too many observations to keep locally", event.getId());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The number of observations that iNaturalist has for the queries.
+     */
+    private int count(List<INatQuery> queries, SharedPages pages) {
+        int count = 0;
+        for (INatQuery query : queries) {
+            count += pages.fetch(query.with("per_page", 0), false).total_results();
+        }
+        return count;
+    }
+
+    private List<INatQuery> chunkQueries(INatQuery query, EventEntity event) {
+        List<String> participants = Participants.of(event).getLogins();
+        List<INatQuery> chunks = new ArrayList<>();
+        for (int i = 0; i < participants.size(); i += participantsPerQuery) {
+            chunks.add(query.with("user_id",
+                String.join(",", participants.subList(i, Math.min(i + participantsPerQuery, participants.size())))));
+        }
+        return chunks;
+    }
+
+    /**
+     * Remove the local observations of the Event, the next sync will fetch all of them again.
+     */
+    public void delete(String eventId) {
+        try {
+            Files.deleteIfExists(file(eventId));
+        }
+        catch (IOException ex) {
+            log.warn("Failed to delete the local observations of Event ({}): {}", eventId, ex.getMessage());
+        }
+    }
+
+    private Path file(String eventId) {
+        return Path.of(storeDir, eventId + ".json");
+    }
+
+    private StoredObservations read(Path file) {
+        if (!Files.exists(file))
+            return null;
+        try {
+            return objectMapper.readValue(file.toFile(), StoredObservations.class);
+        }
+        catch (IOException ex) {
+            log.warn("Failed to read the local observations ({}), syncing all of them again: {}", file, ex.getMessage());
+            return null;
+        }
+    }
+
+    private void write(Path file, StoredObservations stored) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp"); // Unique per Job
+            try {
+                objectMapper.writeValue(temp.toFile(), stored);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch (IOException ex) {
+            log.warn("Failed to write the local observations ({}): {}", file, ex.getMessage());
+        }
+    }
+
+    private record StoredObservations(
+        int version,
+        String query,
+        Instant synced, // When the previous sync started
+        List<Observation> observations
+    ) {}
+
+}
@@ -0,0 +1,264 @@
+package mywild.activity.calculate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Taxon;
+import mywild.activity.calculate.inaturalist.User;
+
+/**
+ * Keeps a large number of observations outside of the heap, one column per field, so that they do not add to the
+ * garbage collection work while a calculation runs. The observations are read through a reusable (flyweight)
+ * cursor, and only the observations that are needed are turned back into objects.
+ *
+ * The buffer is taken from the pooled direct (off-heap) buffers while it fits in the shared budget, otherwise it is
+ * spilled to a memory mapped temporary file. The file is deleted on close, but like any mapping it is only unmapped
+ * (and its disk space freed) once the garbage collector gets to the buffer.
+ */
+@Slf4j
+class ObservationBuffer implements AutoCloseable {
+
+    private static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private final int size;
+
+    private final OffHeapBudget budget;
+
+    private final boolean pooled;
+
+    private final Path spillFile;
+
+    private final ByteBuffer buffer;
+
+    private final List<String> strings = new ArrayList<>(); // Logins and quality grades, referenced by index
+
+    // Column offsets (in bytes)
+    private final int ids;
+    private final int logins;
+    private final int taxonIds;
+    private final int ancestryStarts;
+    private final int ancestryLengths;
+    private final int latitudes;
+    private final int longitudes;
+    private final int observedOns;
+    private final int observedTimes;
+    private final int observedOffsets;
+    private final int qualityGrades;
+    private final int captives;
+    private final int ancestries;
+
+    private ObservationBuffer(int size, int ancestrySize, OffHeapBudget budget) {
+        this.size = size;
+        this.budget = budget;
+        ids = 0;
+        logins = ids + size * Integer.BYTES;
+        taxonIds = logins + size * Integer.BYTES;
+        ancestryStarts = taxonIds + size * Integer.BYTES;
+        ancestryLengths = ancestryStarts + size * Integer.BYTES;
+        qualityGrades = ancestryLengths + size * Integer.BYTES;
+        observedOns = qualityGrades + size * Integer.BYTES;
+        observedOffsets = observedOns + size * Integer.BYTES;
+        ancestries = observedOffsets + size * Integer.BYTES;
+        latitudes = ancestries + ancestrySize * Integer.BYTES;
+        longitudes = latitudes + size * Double.BYTES;
+        observedTimes = longitudes + size * Double.BYTES;
+        captives = observedTimes + size * Long.BYTES;
+        long bytes = captives + size;
+        ByteBuffer direct = budget.tryAcquire(bytes);
+        pooled = direct != null;
+        if (pooled) {
+            spillFile = null;
+            buffer = direct;
+        }
+        else {
+            try {
+                Files.createDirectories(Path.of(budget.getSpillDir()));
+                spillFile = Files.createTempFile(Path.of(budget.getSpillDir()), "observations-", ".bin");
+                try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(1, bytes));
+                }
+                log.debug("The off-heap budget is used up, spilled {} observations to ({})", size, spillFile);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException("Failed to spill the observations to disk!", ex);
+            }
+        }
+    }
+
+    static ObservationBuffer of(List<Observation> observations, OffHeapBudget budget) {
+        int ancestrySize = 0;
+        for (Observation observation : observations) {
+            if (observation.taxon() != null && observation.taxon().min_species_ancestry_ids() != null)
+                ancestrySize += observation.taxon().min_species_ancestry_ids().length;
+        }
+        ObservationBuffer buffer = new ObservationBuffer(observations.size(), ancestrySize, budget);
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        int ancestry = 0;
+        for (int row = 0; row < observations.size(); row++) {
+            Observation observation = observations.get(row);
+            ByteBuffer columns = buffer.buffer;
+            columns.putInt(buffer.ids + row * Integer.BYTES, observation.id());
+            columns.putInt(buffer.logins + row * Integer.BYTES,
+                buffer.index(observation.user() == null ? null : observation.user().login(), stringIndexes));
+            columns.putInt(buffer.qualityGrades + row * Integer.BYTES, buffer.index(observation.quality_grade(), stringIndexes));
+            Taxon taxon = observation.taxon();
+            int[] ancestors = taxon == null || taxon.min_species_ancestry_ids() == null ? new int[0] : taxon.min_species_ancestry_ids();
+            columns.putInt(buffer.taxonIds + row * Integer.BYTES, taxon == null ? NO_VALUE : taxon.id());
+            columns.putInt(buffer.ancestryStarts + row * Integer.BYTES, ancestry);
+            columns.putInt(buffer.ancestryLengths + row * Integer.BYTES, ancestors.length);
+            for (int ancestor : ancestors) {
+                columns.putInt(buffer.ancestries + (ancestry++) * Integer.BYTES, ancestor);
+            }
+            columns.putDouble(buffer.latitudes + row * Double.BYTES, observation.latitude());
+            columns.putDouble(buffer.longitudes + row * Double.BYTES, observation.longitude());
+            columns.putInt(buffer.observedOns + row * Integer.BYTES,
+                observation.observed_on() == null ? NO_VALUE : (int) LocalDate.parse(observation.observed_on()).toEpochDay());
+            ZonedDateTime time = observation.time_observed_at();
+            columns.putLong(buffer.observedTimes + row * Long.BYTES, time == null ? NO_TIME : time.toEpochSecond());
+            columns.putInt(buffer.observedOffsets + row * Integer.BYTES, time == null ? 0 : time.getOffset().getTotalSeconds());
+            columns.put(buffer.captives + row, (byte) (observation.captive() ? 1 : 0));
+        }
+        return buffer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * @return A new cursor, positioned before the first observation.
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    public void close() {
+        if (pooled)
+            budget.release(buffer);
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            }
+            catch (IOException ex) {
+                log.warn("Failed to delete the spilled observations ({}): {}", spillFile, ex.getMessage());
+            }
+        }
+    }
+
+    private int index(String value, Map<String, Integer> stringIndexes) {
+        if (value == null)
+            return NO_VALUE;
+        return stringIndexes.computeIfAbsent(value, key -> {
+            strings.add(key);
+            return strings.size() - 1;
+        });
+    }
+
+    private String string(int index) {
+        return index == NO_VALUE ? null : strings.get(index);
+    }
+
+    /**
+     * A view of one observation (row) at a time, that moves through the buffer without creating objects.
+     */
+    class Cursor {
+
+        private int row = -1;
+
+        boolean next() {
+            return ++row < size;
+        }
+
+        int id() {
+            return buffer.getInt(ids + row * Integer.BYTES);
+        }
+
+        String login() {
+            return string(buffer.getInt(logins + row * Integer.BYTES));
+        }
+
+        String qualityGrade() {
+            return string(buffer.getInt(qualityGrades + row * Integer.BYTES));
+        }
+
+        boolean hasTaxon() {
+            return taxonId() != NO_VALUE;
+        }
+
+        int taxonId() {
+            return buffer.getInt(taxonIds + row * Integer.BYTES);
+        }
+
+        int ancestryLength() {
+            return buffer.getInt(ancestryLengths + row * Integer.BYTES);
+        }
+
+        int ancestor(int index) {
+            return buffer.getInt(ancestries + (buffer.getInt(ancestryStarts + row * Integer.BYTES) + index) * Integer.BYTES);
+        }
+
+        double latitude() {
+            return buffer.getDouble(latitudes + row * Double.BYTES);
+        }
+
+        double longitude() {
+            return buffer.getDouble(longitudes + row * Double.BYTES);
+        }
+
+        boolean hasLocation() {
+            return !Double.isNaN(latitude()) && !Double.isNaN(longitude());
+        }
+
+        boolean captive() {
+            return buffer.get(captives + row) != 0;
+        }
+
+        /**
+         * Turn the current row back into an Observation, for the calculators.
+         */
+        Observation toObservation() {
+            int observedOn = buffer.getInt(observedOns + row * Integer.BYTES);
+            long observedTime = buffer.getLong(observedTimes + row * Long.BYTES);
+            ZonedDateTime timeObservedAt = observedTime == NO_TIME ? null : ZonedDateTime.ofInstant(
+                Instant.ofEpochSecond(observedTime),
+                ZoneOffset.ofTotalSeconds(buffer.getInt(observedOffsets + row * Integer.BYTES)));
+            int[] ancestry = new int[ancestryLength()];
+            for (int i = 0; i < ancestry.length; i++) {
+                ancestry[i] = ancestor(i);
+            }
+            return new Observation(
+                id(),
+                qualityGrade(),
+                new User(0, login(), null),
+                observedOn == NO_VALUE ? null : LocalDate.ofEpochDay(observedOn).toString(),
+                timeObservedAt,
+                hasTaxon() ? new Taxon(taxonId(), true, null, ancestry, 0, null, null, null, null) : null,
+                captive(),
+                latitude(),
+                longitude());
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package mywild.activity.calculate;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observations;
+
+/**
+ * A bounded cache of the observation pages fetched from iNaturalist, so that calculating the same Event again
+ * shortly afterwards does not fetch (and wait for) the same pages again.
+ *
+ * The pages are kept for a limited time, and the least recently used pages are evicted when the cache is full.
+ *
+ * Only pages that cannot change are cached: full keyset (id_above) pages, and a first page that holds all the results.
+ * The other pages (by page number) move when observations are added, so a cached page could not be combined with the
+ * freshly fetched next page without skipping or repeating observations. A short keyset page still grows when newer
+ * observations are added, so it is not cached either.
+ * <p>
+ * The first page of a walk is not looked up or stored at all (see SharedPages.fetch), because its total_results must
+ * be current.
+ */
+@Slf4j
+@Service
+public class ObservationCache {
+
+    @Value("${mywild.wildevents.inat-cache-max-pages}")
+    private int maxPages;
+
+    @Value("${mywild.wildevents.inat-cache-minutes}")
+    private int cacheMinutes;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, CachedPage> pages = new LinkedHashMap<>(16, 0.75f, true); // In access order
+
+    private Counter hits;
+
+    private Counter misses;
+
+    @PostConstruct
+    private void init() {
+        hits = Counter.builder("inat.cache.requests")
+            .description("The number of observation pages looked up in the cache, by whether they were found.")
+            .tag("result", "hit")
+            .register(meterRegistry);
+        misses = Counter.builder("inat.cache.requests")
+            .description("The number of observation pages looked up in the cache, by whether they were found.")
+            .tag("result", "miss")
+            .register(meterRegistry);
+        Gauge.builder("inat.cache.pages", this, ObservationCache::size)
+            .description("The number of observation pages in the cache.")
+            .register(meterRegistry);
+    }
+
+    /**
+     * @return The cached page, or null if the page is not cached (or expired).
+     */
+    synchronized Observations get(INatQuery query) {
+        String key = query.toUri();
+        CachedPage cached = pages.get(key);
+        if (cached != null && cached.expires() < System.currentTimeMillis()) {
+            pages.remove(key);
+            cached = null;
+        }
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached.observations();
+    }
+
+    synchronized void put(String eventId, INatQuery query, Observations observations) {
+        if (maxPages <= 0 || !isStable(query, observations))
+            return;
+        pages.put(query.toUri(), new CachedPage(eventId, observations, System.currentTimeMillis() + cacheMinutes * 60_000L));
+        Iterator<Map.Entry<String, CachedPage>> eldest = pages.entrySet().iterator();
+        while (pages.size() > maxPages) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Remove all the cached pages of the Event, so that the next calculation fetches the latest observations.
+     * @return The number of pages that were removed.
+     */
+    public synchronized int invalidate(String eventId) {
+        int before = pages.size();
+        pages.values().removeIf(cached -> cached.eventId().equals(eventId));
+        int removed = before - pages.size();
+        log.debug("Removed {} cached pages of Event ({})", removed, eventId);
+        return removed;
+    }
+
+    static boolean isStable(INatQuery query, Observations observations) {
+        if (query.get("id_above") != null)
+            return observations.per_page() > 0 && observations.results().size() >= observations.per_page();
+        String page = query.get("page");
+        return (page == null || page.equals("1")) && observations.results().size() >= observations.total_results();
+    }
+
+    private synchronized int size() {
+        return pages.size();
+    }
+
+    private record CachedPage(
+        String eventId,
+        Observations observations,
+        long expires
+    ) {}
+
+}
@@ -0,0 +1,104 @@
+package mywild.activity.calculate;
+
+import java.util.List;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+
+/**
+ * Walks through the pages of an observations query, either by page number or by keyset (id_above).
+ */
+class ObservationPager {
+
+    private final SharedPages pages;
+
+    private final INatQuery query;
+
+    private final boolean keyset;
+
+    private final int perPage;
+
+    private int page = 0;
+
+    private int lastId = 0;
+
+    private int totalResults = 0;
+
+    private boolean cacheable = true;
+
+    private boolean started = false;
+
+    private boolean finished = false;
+
+    ObservationPager(SharedPages pages, INatQuery query, boolean keyset, int perPage) {
+        this.pages = pages;
+        this.query = query;
+        this.keyset = keyset;
+        this.perPage = perPage;
+    }
+
+    /**
+     * Walk through the pages by keyset, starting after the given observation id.
+     */
+    ObservationPager(SharedPages pages, INatQuery query, int afterId, int perPage) {
+        this(pages, query, true, perPage);
+        this.lastId = afterId;
+    }
+
+    /**
+     * Fetch all the pages fresh (bypassing the observation cache), for when the caller keeps track of when it synced.
+     */
+    ObservationPager uncached() {
+        cacheable = false;
+        return this;
+    }
+
+    /**
+     * Fetch the next page.
+     * @return The next page, or null when all the pages were fetched.
+     */
+    Observations next() {
+        if (finished)
+            return null;
+        page++;
+        // The first keyset page is always fetched fresh, because its total is used for the decisions about the walk
+        Observations observations = keyset
+            ? pages.fetch(query.with("id_above", lastId), started && cacheable)
+            : pages.fetch(query.with("page", page), cacheable);
+        List<Observation> results = observations.results();
+        if (!started) { // With keyset paging the later pages only report the results that remain
+            totalResults = observations.total_results();
+            started = true;
+        }
+        // A keyset walk only ends on a short page, the total of its first page is outdated once newer observations arrive
+        if (results.size() < perPage || (!keyset && page >= getTotalPages()))
+            finished = true;
+        else
+            lastId = results.get(results.size() - 1).id();
+        return observations;
+    }
+
+    /**
+     * Start walking after the first pages (by page number), because they were already fetched some other way.
+     */
+    void skipPages(int pages) {
+        page += pages;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    int getPage() {
+        return page;
+    }
+
+    int getTotalResults() {
+        return totalResults;
+    }
+
+    int getTotalPages() {
+        return (int) Math.ceil(totalResults / (double) perPage);
+    }
+
+}
@@ -0,0 +1,158 @@
+package mywild.activity.calculate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+import mywild.activity.calculate.inaturalist.Taxon;
+import mywild.activity.calculate.inaturalist.User;
+
+/**
+ * Decodes an iNaturalist observations response while it streams in, keeping only the fields that the calculations
+ * use and skipping everything else (the v1 API always returns the full observations).
+ *
+ * The repeating strings (logins, dates and quality grades) are interned, so that the pages share them.
+ */
+class ObservationsDecoder {
+
+    private static final int[] NO_ANCESTRY = new int[0];
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    Observations decode(InputStream body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            int totalResults = 0;
+            int page = 0;
+            int perPage = 0;
+            List<Observation> results = new ArrayList<>();
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "total_results" -> totalResults = parser.getIntValue();
+                    case "page" -> page = parser.getIntValue();
+                    case "per_page" -> perPage = parser.getIntValue();
+                    case "results" -> {
+                        expect(value, JsonToken.START_ARRAY);
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            results.add(decodeObservation(parser));
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            return new Observations(totalResults, page, perPage, results);
+        }
+    }
+
+    private Observation decodeObservation(JsonParser parser) throws IOException {
+        int id = 0;
+        String qualityGrade = null;
+        User user = null;
+        String observedOn = null;
+        ZonedDateTime timeObservedAt = null;
+        Taxon taxon = null;
+        boolean captive = false;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL)
+                continue;
+            switch (field) {
+                case "id" -> id = parser.getIntValue();
+                case "quality_grade" -> qualityGrade = parser.getText().intern();
+                case "user" -> user = decodeUser(parser);
+                case "observed_on" -> observedOn = parser.getText().intern();
+                case "time_observed_at" -> timeObservedAt = ZonedDateTime.parse(parser.getText());
+                case "taxon" -> taxon = decodeTaxon(parser);
+                case "captive" -> captive = parser.getBooleanValue();
+                case "location" -> {
+                    String location = parser.getText();
+                    int comma = location.indexOf(',');
+                    if (comma > 0) {
+                        latitude = Double.parseDouble(location.substring(0, comma));
+                        longitude = Double.parseDouble(location.substring(comma + 1));
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return new Observation(id, qualityGrade, user, observedOn, timeObservedAt, taxon, captive, latitude, longitude);
+    }
+
+    private User decodeUser(JsonParser parser) throws IOException {
+        int id = 0;
+        String login = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL)
+                continue;
+            switch (field) {
+                case "id" -> id = parser.getIntValue();
+                case "login" -> login = parser.getText().toLowerCase().intern();
+                default -> parser.skipChildren();
+            }
+        }
+        return new User(id, login, null);
+    }
+
+    private Taxon decodeTaxon(JsonParser parser) throws IOException {
+        int id = 0;
+        boolean isActive = false;
+        int[] ancestry = NO_ANCESTRY;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL)
+                continue;
+            switch (field) {
+                case "id" -> id = parser.getIntValue();
+                case "is_active" -> isActive = parser.getBooleanValue();
+                case "min_species_ancestry" -> ancestry = decodeIds(parser.getText());
+                default -> parser.skipChildren();
+            }
+        }
+        return new Taxon(id, isActive, null, ancestry, 0, null, null, null, null);
+    }
+
+    private static int[] decodeIds(String ids) {
+        if (ids.isEmpty())
+            return NO_ANCESTRY;
+        int count = 1;
+        for (int i = 0; i < ids.length(); i++) {
+            if (ids.charAt(i) == ',')
+                count++;
+        }
+        int[] decoded = new int[count];
+        int index = 0;
+        int id = 0;
+        for (int i = 0; i < ids.length(); i++) {
+            char c = ids.charAt(i);
+            if (c == ',') {
+                decoded[index++] = id;
+                id = 0;
+            }
+            else {
+                id = id * 10 + (c - '0');
+            }
+        }
+        decoded[index] = id;
+        return decoded;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected)
+            throw new IOException("Unexpected iNaturalist response, expected " + expected + " but found " + actual + "!");
+    }
+
+}
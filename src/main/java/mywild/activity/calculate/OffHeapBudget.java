@@ -0,0 +1,168 @@
+package mywild.activity.calculate;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import sun.misc.Unsafe;
+
+/**
+ * The memory that all the concurrent calculations together may use outside of the heap. Buffers that do not fit
+ * into the budget are spilled to (memory mapped) temporary files instead.
+ * <p>
+ * A direct buffer is only freed when the garbage collector gets to it, so the direct buffers are pooled instead:
+ * they are allocated (in power of two sizes) until the budget is used up, and are reused after they are released.
+ * That way the allocated direct memory never exceeds the budget, which should stay below -XX:MaxDirectMemorySize.
+ * Idle buffers are freed (explicitly) when they stay unused for a while, or when a larger buffer needs their room.
+ */
+@Slf4j
+@Service
+public class OffHeapBudget {
+
+    private static final int MIN_BUFFER_BYTES = 64 * 1024;
+
+    private static final int IDLE_MINUTES = 5;
+
+    private static final Unsafe UNSAFE = unsafe();
+
+    @Value("${mywild.wildevents.off-heap-budget-mb}")
+    private long budgetMb;
+
+    @Value("${mywild.wildevents.local-store-dir}")
+    private String spillDir;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final List<IdleBuffer> idleBuffers = new ArrayList<>(); // Guarded by this
+
+    private final ScheduledExecutorService trimmer = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "offheap-trimmer"));
+
+    private long allocated; // Guarded by this
+
+    private long reserved; // Guarded by this
+
+    @PostConstruct
+    private void init() {
+        Gauge.builder("offheap.reserved", this, OffHeapBudget::getReserved)
+            .description("The bytes of the off-heap budget that are in use by the calculations.")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("offheap.allocated", this, OffHeapBudget::getAllocated)
+            .description("The bytes of direct memory allocated for the off-heap budget, including the idle pooled buffers.")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        trimmer.scheduleWithFixedDelay(this::trimIdle, IDLE_MINUTES, IDLE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        trimmer.shutdownNow();
+    }
+
+    /**
+     * Take a direct buffer of at least the given size, reusing the smallest idle buffer that fits, or allocating a new
+     * buffer while the budget allows it (after freeing the idle buffers that are too small to be reused).
+     * @return The buffer (with undefined content), or null if it does not fit into the budget.
+     */
+    synchronized ByteBuffer tryAcquire(long bytes) {
+        IdleBuffer best = null;
+        for (IdleBuffer idle : idleBuffers) {
+            if (idle.buffer().capacity() >= bytes && (best == null || idle.buffer().capacity() < best.buffer().capacity()))
+                best = idle;
+        }
+        ByteBuffer buffer;
+        if (best != null) {
+            idleBuffers.remove(best);
+            buffer = best.buffer();
+        }
+        else {
+            long budget = budgetMb * 1024 * 1024;
+            long minimum = (Math.max(1, bytes) + MIN_BUFFER_BYTES - 1) / MIN_BUFFER_BYTES * MIN_BUFFER_BYTES;
+            if (minimum > Integer.MAX_VALUE || reserved + minimum > budget)
+                return null;
+            // Round up to a power of two so that the buffer can be reused for a while, unless only the exact size fits
+            long capacity = Math.max(MIN_BUFFER_BYTES, Long.highestOneBit(Math.max(1, bytes - 1)) << 1);
+            if (capacity > Integer.MAX_VALUE || reserved + capacity > budget)
+                capacity = minimum;
+            // All the idle buffers are too small, free them (smallest first) until the new buffer fits
+            idleBuffers.sort(Comparator.comparingInt(idle -> idle.buffer().capacity()));
+            while (allocated + capacity > budget)
+                free(idleBuffers.remove(0));
+            buffer = ByteBuffer.allocateDirect((int) capacity);
+            allocated += capacity;
+        }
+        reserved += buffer.capacity();
+        return buffer;
+    }
+
+    /**
+     * Return the buffer to the pool, it must no longer be used.
+     */
+    synchronized void release(ByteBuffer buffer) {
+        reserved -= buffer.capacity();
+        idleBuffers.add(new IdleBuffer(buffer, System.nanoTime()));
+    }
+
+    /**
+     * Free the buffers that were not reused for a while, so that the budget is not held on to after the calculations.
+     */
+    synchronized void trimIdle() {
+        long idleSince = System.nanoTime() - TimeUnit.MINUTES.toNanos(IDLE_MINUTES);
+        for (IdleBuffer idle : new ArrayList<>(idleBuffers)) {
+            if (idle.idleSince() - idleSince <= 0) {
+                idleBuffers.remove(idle);
+                free(idle);
+            }
+        }
+    }
+
+    String getSpillDir() {
+        return spillDir;
+    }
+
+    private synchronized long getReserved() {
+        return reserved;
+    }
+
+    synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Free the direct memory of the buffer right away, instead of waiting for the garbage collector.
+     */
+    private void free(IdleBuffer idle) {
+        allocated -= idle.buffer().capacity();
+        if (UNSAFE != null)
+            UNSAFE.invokeCleaner(idle.buffer());
+    }
+
+    private static Unsafe unsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException ex) {
+            log.warn("Cannot free direct buffers explicitly, leaving them to the garbage collector: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    private record IdleBuffer(ByteBuffer buffer, long idleSince) {}
+
+}
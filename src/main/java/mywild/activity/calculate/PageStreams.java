@@ -0,0 +1,235 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+
+/**
+ * Fetches the pages of several queries at the same time, each query as an independent stream that can fetch a few
+ * pages ahead before it has to wait for the pages to be taken. The number of requests in flight is limited, but
+ * waiting streams do not hold on to a request slot, so the streams can be taken in any order.
+ * <p>
+ * The step that reads the streams holds one of the Job's permits, which covers one request at a time. The other
+ * requests borrow the free permits of the Job, so that the Job as a whole stays within its concurrency.
+ */
+@Slf4j
+class PageStreams implements AutoCloseable {
+
+    private static final int PREFETCH_PAGES = 2;
+
+    private final List<ObservationPager> pagers;
+
+    private final List<BlockingQueue<StreamPage>> queues;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Semaphore requestSlots;
+
+    private final Semaphore ownSlot = new Semaphore(1); // The request covered by the permit of the step
+
+    private final Semaphore jobPermits;
+
+    private final int perPage;
+
+    private final PipelineMetrics metrics;
+
+    // Merge state
+    private final List<List<Observation>> heads;
+
+    private final int[] headIndexes;
+
+    private final boolean[] ended;
+
+    private final int[] takenPages;
+
+    private final AtomicInteger requestedPages = new AtomicInteger(); // Including the requests that are in flight
+
+    private int takenCount = 0;
+
+    PageStreams(SharedPages pages, List<INatQuery> queries, boolean keyset, int perPage, int concurrency,
+            PipelineMetrics metrics) {
+        this(queries.stream().map(query -> new ObservationPager(pages, query, keyset, perPage)).toList(),
+            perPage, concurrency, pages.getPermits(), metrics);
+    }
+
+    /**
+     * Continue walking through the pages of the pager, fetching the next pages while the current page is scored.
+     */
+    PageStreams(ObservationPager pager, int perPage, Semaphore jobPermits, PipelineMetrics metrics) {
+        this(List.of(pager), perPage, 1, jobPermits, metrics);
+    }
+
+    /**
+     * Walk through the pages of the pagers, each pager as a stream.
+     */
+    PageStreams(List<ObservationPager> pagers, int perPage, int concurrency, Semaphore jobPermits, PipelineMetrics metrics) {
+        this.jobPermits = jobPermits;
+        this.perPage = perPage;
+        this.metrics = metrics;
+        this.requestSlots = new Semaphore(concurrency);
+        this.pagers = pagers;
+        this.queues = new ArrayList<>(pagers.size());
+        this.heads = new ArrayList<>(pagers.size());
+        this.headIndexes = new int[pagers.size()];
+        this.ended = new boolean[pagers.size()];
+        this.takenPages = new int[pagers.size()];
+        for (ObservationPager pager : pagers) {
+            BlockingQueue<StreamPage> queue = new ArrayBlockingQueue<>(PREFETCH_PAGES);
+            queues.add(queue);
+            heads.add(List.of());
+            executor.execute(() -> fetch(pager, queue));
+        }
+        metrics.streamOpened(this);
+    }
+
+    int size() {
+        return pagers.size();
+    }
+
+    /**
+     * @return The next page of the stream, or null when all its pages were taken.
+     */
+    List<Observation> take(int stream) throws InterruptedException {
+        StreamPage page = queues.get(stream).take();
+        if (page.error() != null)
+            throw new IllegalStateException("Failed to fetch from iNaturalist!", page.error());
+        if (page == StreamPage.LAST) {
+            queues.get(stream).put(StreamPage.LAST); // Keep reporting the end
+            return null;
+        }
+        takenPages[stream] = page.page();
+        takenCount++;
+        return page.observations();
+    }
+
+    /**
+     * The page number (of its pager) of the page that was last taken from the stream.
+     */
+    int getTakenPage(int stream) {
+        return takenPages[stream];
+    }
+
+    /**
+     * Merge the streams, assuming that each stream is already sorted in the given order.
+     * @return The next merged page, or null when all the streams were taken.
+     */
+    List<Observation> takeMerged(Comparator<Observation> order) throws InterruptedException {
+        List<Observation> merged = new ArrayList<>(perPage);
+        while (merged.size() < perPage) {
+            int best = -1;
+            for (int i = 0; i < pagers.size(); i++) {
+                if (fillHead(i) && (best < 0
+                        || order.compare(heads.get(i).get(headIndexes[i]), heads.get(best).get(headIndexes[best])) < 0))
+                    best = i;
+            }
+            if (best < 0)
+                break;
+            merged.add(heads.get(best).get(headIndexes[best]++));
+        }
+        return merged.isEmpty() ? null : merged;
+    }
+
+    /**
+     * The total results of all the streams. Only complete once the first page of every stream was taken.
+     */
+    int getTotalResults() {
+        return pagers.stream().mapToInt(ObservationPager::getTotalResults).sum();
+    }
+
+    int getTotalPages() {
+        return (int) Math.ceil(getTotalResults() / (double) perPage);
+    }
+
+    /**
+     * The number of fetched pages that are waiting to be taken.
+     */
+    int getQueuedPages() {
+        return (int) queues.stream().flatMap(BlockingQueue::stream).filter(page -> page != StreamPage.LAST).count();
+    }
+
+    /**
+     * The number of pages that were fetched (or are being fetched) ahead, but were not taken. When the streams are
+     * closed early these pages were requested for nothing.
+     */
+    int getPrefetchedPages() {
+        return requestedPages.get() - takenCount;
+    }
+
+    @Override
+    public void close() {
+        metrics.streamClosed(this);
+        executor.shutdownNow();
+    }
+
+    private boolean fillHead(int stream) throws InterruptedException {
+        while (!ended[stream] && headIndexes[stream] >= heads.get(stream).size()) {
+            List<Observation> next = take(stream);
+            if (next == null)
+                ended[stream] = true;
+            else {
+                heads.set(stream, next);
+                headIndexes[stream] = 0;
+            }
+        }
+        return !ended[stream];
+    }
+
+    private void fetch(ObservationPager pager, BlockingQueue<StreamPage> queue) {
+        try {
+            try {
+                while (true) {
+                    Observations observations;
+                    requestSlots.acquire();
+                    try {
+                        Semaphore slot = jobPermits.tryAcquire() ? jobPermits : ownSlot;
+                        if (slot == ownSlot)
+                            ownSlot.acquire();
+                        try {
+                            if (!pager.isFinished())
+                                requestedPages.incrementAndGet();
+                            observations = pager.next();
+                        }
+                        finally {
+                            slot.release();
+                        }
+                    }
+                    finally {
+                        requestSlots.release();
+                    }
+                    if (observations == null)
+                        break;
+                    queue.put(new StreamPage(observations.results(), pager.getPage(), null)); // Blocks while the calculator is behind
+                }
+                queue.put(StreamPage.LAST);
+            }
+            catch (InterruptedException ex) {
+                throw ex;
+            }
+            catch (Throwable ex) {
+                queue.put(new StreamPage(null, 0, ex));
+            }
+        }
+        catch (InterruptedException ex) {
+            log.trace("Stopped fetching the stream.");
+        }
+    }
+
+    private record StreamPage(
+        List<Observation> observations,
+        int page,
+        Throwable error
+    ) {
+        static final StreamPage LAST = new StreamPage(List.of(), 0, null);
+    }
+
+}
@@ -0,0 +1,60 @@
+package mywild.activity.calculate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.event.EventEntity;
+
+/**
+ * The participants of an Event, each with a dense index so that the calculators can score them in arrays instead
+ * of maps keyed by login.
+ */
+class Participants {
+
+    private final List<String> logins;
+
+    private final Map<String, Integer> indexes;
+
+    private Participants(List<String> logins) {
+        this.logins = logins;
+        indexes = new HashMap<>(logins.size() * 2);
+        for (int i = 0; i < logins.size(); i++) {
+            indexes.putIfAbsent(logins.get(i).toLowerCase(), i);
+        }
+    }
+
+    static Participants of(EventEntity event) {
+        return new Participants(Arrays.asList(event.getParticipants().replace("#", "").split(",")));
+    }
+
+    int size() {
+        return logins.size();
+    }
+
+    List<String> getLogins() {
+        return logins;
+    }
+
+    String login(int index) {
+        return logins.get(index);
+    }
+
+    /**
+     * @return The index of the participant, or -1 if the login is not a participant.
+     */
+    int indexOf(String login) {
+        if (login == null)
+            return -1;
+        Integer index = indexes.get(login); // The decoded logins are already in lower case
+        if (index == null)
+            index = indexes.get(login.toLowerCase());
+        return index == null ? -1 : index;
+    }
+
+    int indexOf(Observation observation) {
+        return observation.user() == null ? -1 : indexOf(observation.user().login());
+    }
+
+}
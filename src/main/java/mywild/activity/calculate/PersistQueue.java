@@ -0,0 +1,101 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.ActivityEntity;
+import mywild.activity.ActivityRepository;
+
+/**
+ * Saves the partial results (and checkpoints) of the Activities of a Job on a separate thread, so that the steps keep
+ * on calculating while Cosmos is written to. Only a few saves can wait at a time, when Cosmos falls behind the
+ * Activities wait to queue their next save, and the Job stops fetching new pages, until the saves caught up.
+ */
+@Slf4j
+class PersistQueue implements AutoCloseable {
+
+    private static final int QUEUED_SAVES = 4;
+
+    private final ActivityRepository activityRepo;
+
+    private final PipelineMetrics metrics;
+
+    private final Semaphore slots = new Semaphore(QUEUED_SAVES);
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(Thread.ofVirtual().factory());
+
+    private final Map<String, CompletableFuture<Void>> lastSaves = new ConcurrentHashMap<>();
+
+    private final Map<String, RuntimeException> failures = new ConcurrentHashMap<>();
+
+    PersistQueue(ActivityRepository activityRepo, PipelineMetrics metrics) {
+        this.activityRepo = activityRepo;
+        this.metrics = metrics;
+        metrics.persistsOpened(this);
+    }
+
+    /**
+     * Queue a save of (a snapshot of) the Activity, waiting while the queue is full.
+     * @throws IllegalStateException If a previously queued save of the Activity failed.
+     */
+    void save(ActivityEntity activity) throws InterruptedException {
+        String activityId = activity.getId();
+        RuntimeException failure = failures.remove(activityId);
+        if (failure != null)
+            throw new IllegalStateException("Failed to save the Activity!", failure);
+        slots.acquire();
+        ActivityEntity snapshot = activity.toBuilder()
+            .results(activity.getResults() == null ? null : new ArrayList<>(activity.getResults()))
+            .states(activity.getStates() == null ? null : new ArrayList<>(activity.getStates()))
+            .build();
+        lastSaves.put(activityId, CompletableFuture.runAsync(() -> {
+            try {
+                metrics.getPersistStage().record(() -> activityRepo.save(snapshot));
+            }
+            catch (RuntimeException ex) {
+                log.warn("Failed to save the Activity ({}) in the background: {}", activityId, ex.getMessage());
+                failures.put(activityId, ex);
+            }
+            finally {
+                slots.release();
+            }
+        }, worker));
+    }
+
+    /**
+     * Wait for the queued saves of the Activity to finish, before saving it directly.
+     */
+    void drain(String activityId) {
+        CompletableFuture<Void> lastSave = lastSaves.remove(activityId);
+        if (lastSave != null)
+            lastSave.join(); // The saves are done in order, so the earlier saves are done as well
+        failures.remove(activityId); // Replaced by the direct save
+    }
+
+    /**
+     * Wait while the queue is full, so that fetching slows down to the pace of the saves.
+     */
+    void awaitCapacity() throws InterruptedException {
+        slots.acquire();
+        slots.release();
+    }
+
+    /**
+     * The number of saves that are waiting or in progress.
+     */
+    int getQueuedSaves() {
+        return QUEUED_SAVES - slots.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        metrics.persistsClosed(this);
+        worker.close(); // Finish the queued saves
+    }
+
+}
@@ -0,0 +1,100 @@
+package mywild.activity.calculate;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * The throughput of the calculation stages (fetching and decoding the pages, scoring them and saving the results),
+ * how many fetched pages are waiting to be scored, how many saves are waiting to be written and how often the local
+ * observations did not fit into the off-heap budget.
+ */
+@Service
+public class PipelineMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer fetchStage;
+
+    private Timer scoreStage;
+
+    private Timer persistStage;
+
+    private Counter buffersSpilled;
+
+    private final Set<PageStreams> openStreams = ConcurrentHashMap.newKeySet();
+
+    private final Set<PersistQueue> openPersists = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        fetchStage = stage("fetch", "Fetching and decoding a page of observations from iNaturalist.");
+        scoreStage = stage("score", "Scoring a page of observations.");
+        persistStage = stage("persist", "Saving the (partial) results of an Activity.");
+        Gauge.builder("calculate.queue.pages", this, PipelineMetrics::getQueuedPages)
+            .description("The number of fetched pages that are waiting to be scored.")
+            .register(meterRegistry);
+        Gauge.builder("calculate.queue.saves", this, PipelineMetrics::getQueuedSaves)
+            .description("The number of Activity saves that are waiting to be written (or being written) to the database.")
+            .register(meterRegistry);
+        buffersSpilled = Counter.builder("calculate.buffers.spilled")
+            .description("The number of local observation buffers that were spilled to disk, because they did not fit into the off-heap budget.")
+            .register(meterRegistry);
+    }
+
+    private Timer stage(String stage, String description) {
+        return Timer.builder("calculate.stage")
+            .description(description)
+            .tag("stage", stage)
+            .register(meterRegistry);
+    }
+
+    Timer getFetchStage() {
+        return fetchStage;
+    }
+
+    Timer getScoreStage() {
+        return scoreStage;
+    }
+
+    Timer getPersistStage() {
+        return persistStage;
+    }
+
+    void bufferCreated(ObservationBuffer buffer) {
+        if (buffer.isSpilled())
+            buffersSpilled.increment();
+    }
+
+    void streamOpened(PageStreams streams) {
+        openStreams.add(streams);
+    }
+
+    void streamClosed(PageStreams streams) {
+        openStreams.remove(streams);
+    }
+
+    void persistsOpened(PersistQueue persists) {
+        openPersists.add(persists);
+    }
+
+    void persistsClosed(PersistQueue persists) {
+        openPersists.remove(persists);
+    }
+
+    private int getQueuedPages() {
+        return openStreams.stream().mapToInt(PageStreams::getQueuedPages).sum();
+    }
+
+    private int getQueuedSaves() {
+        return openPersists.stream().mapToInt(PersistQueue::getQueuedSaves).sum();
+    }
+
+}
@@ -0,0 +1,136 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.List;
+import mywild.activity.ActivityRegion;
+
+/**
+ * Finds the regions (polygons) that contain a location. The polygons are prepared once: their bounding boxes are
+ * spread over a uniform grid, so that a lookup only tests the few polygons whose box overlaps the location's grid
+ * cell, before doing the (exact) point-in-polygon test.
+ */
+class RegionIndex {
+
+    private static final int MAX_GRID_SIZE = 64;
+
+    private final double[][] lats; // The outline of each polygon
+
+    private final double[][] lngs;
+
+    private final double[][] boxes; // The {swLat, swLng, neLat, neLng} of each polygon
+
+    private final double swLat;
+
+    private final double swLng;
+
+    private final double cellLat;
+
+    private final double cellLng;
+
+    private final int gridSize;
+
+    private final int[][] cells; // The polygons whose box overlaps each grid cell
+
+    RegionIndex(List<ActivityRegion> regions) {
+        int count = regions.size();
+        lats = new double[count][];
+        lngs = new double[count][];
+        boxes = new double[count][];
+        double minLat = Double.MAX_VALUE;
+        double minLng = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLng = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            List<List<Double>> polygon = regions.get(i).getPolygon();
+            lats[i] = new double[polygon.size()];
+            lngs[i] = new double[polygon.size()];
+            double[] box = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+            for (int p = 0; p < polygon.size(); p++) {
+                lats[i][p] = polygon.get(p).get(0);
+                lngs[i][p] = polygon.get(p).get(1);
+                box[0] = Math.min(box[0], lats[i][p]);
+                box[1] = Math.min(box[1], lngs[i][p]);
+                box[2] = Math.max(box[2], lats[i][p]);
+                box[3] = Math.max(box[3], lngs[i][p]);
+            }
+            boxes[i] = box;
+            minLat = Math.min(minLat, box[0]);
+            minLng = Math.min(minLng, box[1]);
+            maxLat = Math.max(maxLat, box[2]);
+            maxLng = Math.max(maxLng, box[3]);
+        }
+        swLat = minLat;
+        swLng = minLng;
+        gridSize = Math.max(1, Math.min(MAX_GRID_SIZE, (int) Math.ceil(Math.sqrt(count)) * 2));
+        cellLat = Math.max(maxLat - minLat, Double.MIN_VALUE) / gridSize;
+        cellLng = Math.max(maxLng - minLng, Double.MIN_VALUE) / gridSize;
+        List<List<Integer>> overlaps = new ArrayList<>(gridSize * gridSize);
+        for (int cell = 0; cell < gridSize * gridSize; cell++) {
+            overlaps.add(new ArrayList<>());
+        }
+        for (int i = 0; i < count; i++) {
+            int fromRow = row(boxes[i][0]);
+            int toRow = row(boxes[i][2]);
+            int fromCol = col(boxes[i][1]);
+            int toCol = col(boxes[i][3]);
+            for (int row = fromRow; row <= toRow; row++) {
+                for (int col = fromCol; col <= toCol; col++) {
+                    overlaps.get(row * gridSize + col).add(i);
+                }
+            }
+        }
+        cells = new int[overlaps.size()][];
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] = overlaps.get(cell).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    int size() {
+        return lats.length;
+    }
+
+    /**
+     * Find the regions that contain the location (regions may overlap).
+     * @param found Receives the indexes of the regions, must fit all the regions.
+     * @return The number of regions that were found.
+     */
+    int find(double lat, double lng, int[] found) {
+        if (!(lat >= swLat && lng >= swLng)) // NaN fails every comparison
+            return 0;
+        int row = (int) ((lat - swLat) / cellLat);
+        int col = (int) ((lng - swLng) / cellLng);
+        if (row > gridSize || col > gridSize)
+            return 0;
+        int count = 0;
+        for (int region : cells[Math.min(row, gridSize - 1) * gridSize + Math.min(col, gridSize - 1)]) {
+            double[] box = boxes[region];
+            if (lat >= box[0] && lat <= box[2] && lng >= box[1] && lng <= box[3] && contains(region, lat, lng))
+                found[count++] = region;
+        }
+        return count;
+    }
+
+    /**
+     * The ray casting (even-odd) test.
+     */
+    private boolean contains(int region, double lat, double lng) {
+        double[] polyLats = lats[region];
+        double[] polyLngs = lngs[region];
+        boolean inside = false;
+        for (int i = 0, j = polyLats.length - 1; i < polyLats.length; j = i++) {
+            if ((polyLats[i] > lat) != (polyLats[j] > lat)
+                    && lng < (polyLngs[j] - polyLngs[i]) * (lat - polyLats[i]) / (polyLats[j] - polyLats[i]) + polyLngs[i])
+                inside = !inside;
+        }
+        return inside;
+    }
+
+    private int row(double lat) {
+        return Math.min((int) ((lat - swLat) / cellLat), gridSize - 1);
+    }
+
+    private int col(double lng) {
+        return Math.min((int) ((lng - swLng) / cellLng), gridSize - 1);
+    }
+
+}
@@ -0,0 +1,142 @@
+package mywild.activity.calculate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import io.micrometer.core.instrument.Timer;
+import mywild.activity.ActivityStepObservation;
+import mywild.activity.ActivityStepResult;
+import mywild.activity.ActivityStepState;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.User;
+
+/**
+ * Keeps track of what is needed to continue the calculation of a step later on: the highest observation id that
+ * was seen (the watermark) and the observations (or the coverage) that the result depends on.
+ */
+class ResumableCalculator implements StepCalculator {
+
+    private final StepCalculator calculator;
+
+    private final Timer scoreStage;
+
+    private int lastObservationId = 0;
+
+    ResumableCalculator(StepCalculator calculator, Timer scoreStage) {
+        this.calculator = calculator;
+        this.scoreStage = scoreStage;
+    }
+
+    /**
+     * Continue from the state of a previous calculation.
+     */
+    ResumableCalculator(StepCalculator calculator, ActivityStepState previous, Timer scoreStage) {
+        this(calculator, scoreStage);
+        if (previous.getCoverage() != null)
+            calculator.resumeCoverage(decode(previous.getCoverage()));
+        if (previous.getObservations() != null)
+            accept(previous.getObservations().stream().map(ResumableCalculator::expand).toList());
+        lastObservationId = Math.max(lastObservationId, previous.getLastObservationId());
+    }
+
+    /**
+     * Raise the watermark to an observation id whose older observations are all accounted for, even though they
+     * were not all received (because they cannot change the result).
+     */
+    void coverUpTo(int observationId) {
+        lastObservationId = Math.max(lastObservationId, observationId);
+    }
+
+    int getLastObservationId() {
+        return lastObservationId;
+    }
+
+    @Override
+    public void accept(List<Observation> observations) {
+        for (Observation observation : observations) {
+            lastObservationId = Math.max(lastObservationId, observation.id());
+        }
+        scoreStage.record(() -> calculator.accept(observations));
+    }
+
+    @Override
+    public boolean isDone() {
+        return calculator.isDone();
+    }
+
+    @Override
+    public boolean wants(String participant) {
+        return calculator.wants(participant);
+    }
+
+    @Override
+    public ActivityStepResult finish() {
+        return calculator.finish();
+    }
+
+    @Override
+    public List<Observation> getResumeObservations() {
+        return calculator.getResumeObservations();
+    }
+
+    @Override
+    public Map<String, long[]> getResumeCoverage() {
+        return calculator.getResumeCoverage();
+    }
+
+    @Override
+    public void resumeCoverage(Map<String, long[]> coverage) {
+        calculator.resumeCoverage(coverage);
+    }
+
+    /**
+     * A snapshot of the state, the calculator can continue to receive observations afterwards.
+     */
+    ActivityStepState toState(String stepId, String query) {
+        List<Observation> observations = getResumeObservations();
+        Map<String, long[]> coverage = getResumeCoverage();
+        return new ActivityStepState(stepId, query, lastObservationId,
+            observations == null ? null : observations.stream().map(ResumableCalculator::compact).toList(),
+            coverage == null ? null : encode(coverage));
+    }
+
+    /**
+     * Keep only what the calculators score on, the whole observations would soon fill up the Activity document.
+     */
+    private static ActivityStepObservation compact(Observation observation) {
+        return new ActivityStepObservation(observation.id(),
+            observation.user() == null ? null : observation.user().login(),
+            observation.observed_on(), observation.time_observed_at());
+    }
+
+    private static Observation expand(ActivityStepObservation observation) {
+        return new Observation(observation.getId(), null,
+            observation.getLogin() == null ? null : new User(0, observation.getLogin(), null),
+            observation.getObservedOn(), observation.getTimeObservedAt(), null, false, Double.NaN, Double.NaN);
+    }
+
+    private static Map<String, String> encode(Map<String, long[]> coverage) {
+        Map<String, String> encoded = new HashMap<>(coverage.size());
+        for (Map.Entry<String, long[]> participant : coverage.entrySet()) {
+            ByteBuffer bytes = ByteBuffer.allocate(participant.getValue().length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asLongBuffer().put(participant.getValue());
+            encoded.put(participant.getKey(), Base64.getEncoder().encodeToString(bytes.array()));
+        }
+        return encoded;
+    }
+
+    private static Map<String, long[]> decode(Map<String, String> coverage) {
+        Map<String, long[]> decoded = new HashMap<>(coverage.size());
+        for (Map.Entry<String, String> participant : coverage.entrySet()) {
+            ByteBuffer bytes = ByteBuffer.wrap(Base64.getDecoder().decode(participant.getValue())).order(ByteOrder.LITTLE_ENDIAN);
+            long[] covered = new long[bytes.remaining() / Long.BYTES];
+            bytes.asLongBuffer().get(covered);
+            decoded.put(participant.getKey(), covered);
+        }
+        return decoded;
+    }
+
+}
@@ -0,0 +1,67 @@
+package mywild.activity.calculate;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.job.JobContext;
+
+/**
+ * Splits the date window (d1/d2) of a query into smaller date ranges, so that large steps can be fetched as several
+ * smaller queries in parallel. The ranges are sized by halving the window and counting the results (per_page=0) of
+ * each half, until every range has at most the configured number of results.
+ */
+@Slf4j
+@Service
+public class ShardPlanner {
+
+    @Value("${mywild.wildevents.inat-results-per-shard}")
+    private int resultsPerShard;
+
+    @Value("${mywild.wildevents.max-inat-shards-per-step}")
+    private int maxShards;
+
+    @Autowired
+    private INatClient client;
+
+    public boolean isShardingUseful(int totalResults) {
+        return totalResults > resultsPerShard;
+    }
+
+    /**
+     * @return The shard queries in date order, or an empty list if the query cannot be split within the maximum
+     *         number of shards.
+     */
+    public List<INatQuery> plan(INatQuery query, LocalDate start, LocalDate stop, int totalResults, JobContext context) {
+        List<INatQuery> shards = new ArrayList<>();
+        if (!split(query, start, stop, totalResults, shards, context)) {
+            log.debug("The query needs more than {} shards", maxShards);
+            return List.of();
+        }
+        log.debug("Planned {} shards for {} results", shards.size(), totalResults);
+        return shards;
+    }
+
+    private boolean split(INatQuery query, LocalDate start, LocalDate stop, int totalResults, List<INatQuery> shards,
+            JobContext context) {
+        if (totalResults == 0)
+            return true;
+        if (totalResults <= resultsPerShard || !start.isBefore(stop)) {
+            if (shards.size() >= maxShards)
+                return false;
+            shards.add(query.with("d1", start).with("d2", stop));
+            return true;
+        }
+        LocalDate middle = start.plusDays(ChronoUnit.DAYS.between(start, stop) / 2);
+        int firstTotal = client.count(query.with("d1", start).with("d2", middle));
+        context.pageFetched();
+        return split(query, start, middle, firstTotal, shards, context)
+            && split(query, middle.plusDays(1), stop, totalResults - firstTotal, shards, context);
+    }
+
+}
@@ -0,0 +1,252 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observations;
+import mywild.event.EventEntity;
+import mywild.job.JobContext;
+
+/**
+ * The observation pages fetched during one calculation (Job). When several steps use the same query, each page is
+ * fetched only once and is kept until every one of those steps has read it, or was released without reading it.
+ * <p>
+ * The steps read the pages through their own view (see forStep), which remembers the pages that the step read.
+ */
+@Slf4j
+class SharedPages implements AutoCloseable {
+
+    private final INatClient client;
+
+    private final ObservationCache cache;
+
+    private final JobContext context;
+
+    private final Counter pagesDeduplicated;
+
+    private final Semaphore permits;
+
+    private final PersistQueue persists;
+
+    private final Map<INatQuery, Integer> consumers; // Guarded by itself
+
+    private final Map<String, Map<String, List<INatQuery>>> stepQueries; // Per Activity and step, guarded by consumers
+
+    private final Map<INatQuery, SharedPage> pages;
+
+    private final Map<String, Participants> participants;
+
+    private final Set<INatQuery> read; // The shared pages read by the step of this view, null for the Job itself
+
+    private ObservationBuffer localObservations;
+
+    SharedPages(INatClient client, ObservationCache cache, JobContext context, Counter pagesDeduplicated,
+            int concurrency, PersistQueue persists) {
+        this.client = client;
+        this.cache = cache;
+        this.context = context;
+        this.pagesDeduplicated = pagesDeduplicated;
+        this.permits = new Semaphore(concurrency);
+        this.persists = persists;
+        this.consumers = new HashMap<>();
+        this.stepQueries = new HashMap<>();
+        this.pages = new ConcurrentHashMap<>();
+        this.participants = new ConcurrentHashMap<>();
+        this.read = null;
+    }
+
+    private SharedPages(SharedPages job) {
+        this.client = job.client;
+        this.cache = job.cache;
+        this.context = job.context;
+        this.pagesDeduplicated = job.pagesDeduplicated;
+        this.permits = job.permits;
+        this.persists = job.persists;
+        this.consumers = job.consumers;
+        this.stepQueries = job.stepQueries;
+        this.pages = job.pages;
+        this.participants = job.participants;
+        this.read = ConcurrentHashMap.newKeySet();
+        this.localObservations = job.localObservations;
+    }
+
+    /**
+     * Register a step that will read the pages of the queries. All the steps must be registered before fetching.
+     */
+    void addConsumer(String activityId, String stepId, List<INatQuery> queries) {
+        synchronized (consumers) {
+            stepQueries.computeIfAbsent(activityId, key -> new HashMap<>()).put(stepId, queries);
+            for (INatQuery query : queries) {
+                consumers.merge(pagingKey(query), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * A view of the pages for one step, which remembers the shared pages that the step read.
+     */
+    SharedPages forStep() {
+        return new SharedPages(this);
+    }
+
+    /**
+     * The step is done with its queries (it finished, stopped early, or got its results some other way), so give up
+     * the shared pages that it did not read, instead of keeping them until the Job is done.
+     */
+    void release(String activityId, String stepId) {
+        synchronized (consumers) {
+            Map<String, List<INatQuery>> steps = stepQueries.get(activityId);
+            List<INatQuery> queries = steps == null ? null : steps.remove(stepId);
+            if (queries == null)
+                return; // Not registered, or already released
+            for (INatQuery query : queries) {
+                INatQuery key = pagingKey(query);
+                consumers.computeIfPresent(key, (unused, count) -> count > 1 ? count - 1 : null);
+                for (Map.Entry<INatQuery, SharedPage> page : pages.entrySet()) {
+                    if (!pagingKey(page.getKey()).equals(key) || (read != null && read.contains(page.getKey())))
+                        continue;
+                    SharedPage shared = page.getValue();
+                    synchronized (shared) {
+                        if (--shared.remaining <= 0)
+                            pages.remove(page.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Release the steps of the Activity that were not released yet, for example when it was skipped or failed.
+     */
+    void releaseAll(String activityId) {
+        List<String> stepIds;
+        synchronized (consumers) {
+            Map<String, List<INatQuery>> steps = stepQueries.get(activityId);
+            stepIds = steps == null ? List.of() : new ArrayList<>(steps.keySet());
+        }
+        for (String stepId : stepIds) {
+            release(activityId, stepId);
+        }
+    }
+
+    /**
+     * The permits that limit how much of the Job (Activities being prepared, steps and their requests) runs at once.
+     */
+    Semaphore getPermits() {
+        return permits;
+    }
+
+    /**
+     * The saves of the Activities of the Job, fetching waits for them when they fall behind.
+     */
+    PersistQueue getPersists() {
+        return persists;
+    }
+
+    /**
+     * The participants of the Event, indexed once for all the steps of the Job.
+     */
+    Participants getParticipants(EventEntity event) {
+        return participants.computeIfAbsent(event.getId(), key -> Participants.of(event));
+    }
+
+    /**
+     * All the observations of the participants during the Event, or null if they are not available locally.
+     */
+    ObservationBuffer getLocalObservations() {
+        return localObservations;
+    }
+
+    void setLocalObservations(ObservationBuffer localObservations) {
+        this.localObservations = localObservations;
+    }
+
+    /**
+     * Release the local observations and finish the queued saves, once all the steps have been calculated.
+     */
+    @Override
+    public void close() {
+        if (localObservations != null)
+            localObservations.close();
+        persists.close();
+    }
+
+    Observations fetch(INatQuery query) {
+        return fetch(query, true);
+    }
+
+    /**
+     * @param cacheable If the page may come from (and be stored in) the observation cache, otherwise it is fetched fresh.
+     */
+    Observations fetch(INatQuery query, boolean cacheable) {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("The calculation was stopped before fetching from iNaturalist.");
+        try {
+            persists.awaitCapacity();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The calculation was stopped while waiting for the saves.");
+        }
+        SharedPage shared;
+        synchronized (consumers) {
+            int count = consumers.getOrDefault(pagingKey(query), 1);
+            shared = count < 2 ? pages.get(query) : pages.computeIfAbsent(query, key -> new SharedPage(count));
+        }
+        if (shared == null)
+            return fetchCached(query, cacheable);
+        if (read != null)
+            read.add(query);
+        synchronized (shared) {
+            if (shared.observations == null) {
+                shared.observations = fetchCached(query, cacheable);
+            }
+            else {
+                log.trace("Reusing the page already fetched for another step: {}", query.toUri());
+                context.pageDeduplicated();
+                pagesDeduplicated.increment();
+            }
+            if (--shared.remaining <= 0)
+                pages.remove(query);
+            return shared.observations;
+        }
+    }
+
+    private Observations fetchCached(INatQuery query, boolean cacheable) {
+        Observations observations = cacheable ? cache.get(query) : null;
+        if (observations != null) {
+            context.pageCached();
+            return observations;
+        }
+        observations = client.fetchObservations(query);
+        context.pageFetched();
+        if (cacheable)
+            cache.put(context.getEventId(), query, observations);
+        return observations;
+    }
+
+    private static INatQuery pagingKey(INatQuery query) {
+        return query.without("page").without("id_above");
+    }
+
+    private static class SharedPage {
+
+        private int remaining;
+
+        private Observations observations;
+
+        SharedPage(int remaining) {
+            this.remaining = remaining;
+        }
+
+    }
+
+}
@@ -0,0 +1,57 @@
+package mywild.activity.calculate;
+
+import java.util.List;
+import java.util.Map;
+import mywild.activity.ActivityStepResult;
+import mywild.activity.calculate.inaturalist.Observation;
+
+/**
+ * Calculates the result of a single Activity step incrementally, one page of observations at a time, so that
+ * each page can be discarded as soon as it was scored.
+ */
+public interface StepCalculator {
+
+    /**
+     * Score the next page of observations (in the order returned by iNaturalist).
+     */
+    void accept(List<Observation> observations);
+
+    /**
+     * Indicate that more pages will not change the result anymore, and fetching can stop.
+     */
+    default boolean isDone() {
+        return false;
+    }
+
+    /**
+     * Indicate if observations made by the participant can still change the result.
+     */
+    default boolean wants(String participant) {
+        return !isDone();
+    }
+
+    ActivityStepResult finish();
+
+    /**
+     * The observations that the result depends on. Accepting only these observations (in any order) in a new
+     * calculator must give the same result, so that a later calculation can continue from there.
+     * Only their id, user login and observed date and time are kept.
+     * Null when the calculator continues from its coverage instead.
+     */
+    List<Observation> getResumeObservations();
+
+    /**
+     * The cells that each participant covered (by login), for the calculators that continue from their coverage
+     * instead of from the observations (which would be too many to keep). The bitsets must be copies.
+     */
+    default Map<String, long[]> getResumeCoverage() {
+        return null;
+    }
+
+    /**
+     * Continue from the coverage of a previous calculation, before any observations are accepted.
+     */
+    default void resumeCoverage(Map<String, long[]> coverage) {
+    }
+
+}
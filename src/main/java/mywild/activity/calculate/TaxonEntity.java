@@ -0,0 +1,46 @@
+package mywild.activity.calculate;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import com.azure.spring.data.cosmos.core.mapping.Container;
+import com.azure.spring.data.cosmos.core.mapping.CosmosUniqueKey;
+import com.azure.spring.data.cosmos.core.mapping.CosmosUniqueKeyPolicy;
+import com.azure.spring.data.cosmos.core.mapping.PartitionKey;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+import mywild.activity.calculate.inaturalist.Taxon;
+import mywild.core.data.BaseEntity;
+
+/**
+ * A resolved taxon name, kept so that the names do not need to be resolved again after a restart.
+ * The name is the partition key, so that the unique key makes the name unique in the whole container.
+ */
+@ToString(callSuper = true)
+@Getter
+@Setter
+@SuperBuilder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@Container(containerName = "Taxa")
+@CosmosUniqueKeyPolicy(uniqueKeys = {
+    @CosmosUniqueKey(paths = { "/name" })
+})
+public class TaxonEntity extends BaseEntity {
+
+    @PartitionKey
+    @NotBlank
+    private String name; // Lower case
+
+    @NotNull
+    private List<Taxon> taxa;
+
+    @NotNull
+    private ZonedDateTime resolved;
+
+}
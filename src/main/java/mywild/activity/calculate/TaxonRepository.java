@@ -0,0 +1,12 @@
+package mywild.activity.calculate;
+
+import java.util.Optional;
+import org.springframework.stereotype.Repository;
+import com.azure.spring.data.cosmos.repository.CosmosRepository;
+
+@Repository
+public interface TaxonRepository extends CosmosRepository<TaxonEntity, String> {
+
+    Optional<TaxonEntity> findByName(String name);
+
+}
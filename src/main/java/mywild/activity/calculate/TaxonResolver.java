@@ -0,0 +1,148 @@
+package mywild.activity.calculate;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Taxa;
+import mywild.activity.calculate.inaturalist.Taxon;
+
+/**
+ * Resolves the taxon names used in the step criteria to the iNaturalist taxa they refer to.
+ *
+ * Resolved names are cached in memory and in the database until they expire, so that each name is only looked up
+ * on iNaturalist once in a while. Failed lookups are remembered (in memory) for a few minutes, so that a failing name
+ * is not searched for again by every calculation.
+ */
+@Slf4j
+@Service
+public class TaxonResolver {
+
+    private static final int TAXA_PER_PAGE = 30;
+
+    private static final int FAILED_LOOKUP_MINUTES = 5;
+
+    @Value("${mywild.wildevents.taxon-cache-days}")
+    private int cacheDays;
+
+    @Autowired
+    private INatClient inatClient;
+
+    @Autowired
+    private TaxonRepository taxonRepo;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, TaxonEntity> cache = new ConcurrentHashMap<>();
+
+    private final Map<String, ZonedDateTime> failedLookups = new ConcurrentHashMap<>();
+
+    /**
+     * Find the active taxa that exactly match the (scientific or common) name, the same way iNaturalist matches
+     * the taxon_name query param.
+     * @return The matching taxa, or an empty list if the name is unknown (or could not be looked up).
+     */
+    public List<Taxon> resolve(String taxonName) {
+        long start = System.nanoTime();
+        String name = taxonName.trim().toLowerCase();
+        String source = "memory";
+        TaxonEntity entity = cache.get(name);
+        if (isExpired(entity)) {
+            source = "store";
+            Optional<TaxonEntity> stored = taxonRepo.findByName(name);
+            entity = stored.orElse(null);
+            if (isExpired(entity)) {
+                ZonedDateTime failed = failedLookups.get(name);
+                if (failed != null && failed.isAfter(ZonedDateTime.now().minusMinutes(FAILED_LOOKUP_MINUTES))) {
+                    record("failed", start);
+                    return entity == null ? List.of() : entity.getTaxa(); // Rather use the expired taxa than none
+                }
+                source = "inat";
+                List<Taxon> taxa = lookup(name);
+                if (taxa == null) {
+                    failedLookups.put(name, ZonedDateTime.now());
+                    record("failed", start);
+                    return entity == null ? List.of() : entity.getTaxa();
+                }
+                failedLookups.remove(name);
+                entity = save((entity == null ? TaxonEntity.builder() : entity.toBuilder())
+                    .name(name)
+                    .taxa(taxa)
+                    .resolved(ZonedDateTime.now())
+                    .build());
+            }
+            cache.put(name, entity);
+        }
+        record(source, start);
+        return entity.getTaxa();
+    }
+
+    /**
+     * @return The taxon ids of the name, as a taxon_id query param value, or null if the name could not be resolved.
+     */
+    public String resolveIds(String taxonName) {
+        List<Taxon> taxa = resolve(taxonName);
+        if (taxa.isEmpty())
+            return null;
+        return String.join(",", taxa.stream().map(taxon -> String.valueOf(taxon.id())).toList());
+    }
+
+    /**
+     * Save the resolved name, when another node resolved (and saved) the same name at the same time use its result.
+     */
+    private TaxonEntity save(TaxonEntity entity) {
+        try {
+            return taxonRepo.save(entity);
+        }
+        catch (RuntimeException ex) {
+            Optional<TaxonEntity> stored = taxonRepo.findByName(entity.getName());
+            if (!stored.isPresent())
+                throw ex;
+            log.debug("The taxon name ({}) was saved by another node in the meantime", entity.getName());
+            return stored.get();
+        }
+    }
+
+    private boolean isExpired(TaxonEntity entity) {
+        return entity == null || entity.getResolved().isBefore(ZonedDateTime.now().minusDays(cacheDays));
+    }
+
+    private List<Taxon> lookup(String name) {
+        try {
+            Taxa taxa = inatClient.fetch(INatQuery.of("taxa", Map.of(
+                "q", name,
+                "is_active", "true",
+                "per_page", String.valueOf(TAXA_PER_PAGE))), Taxa.class);
+            List<Taxon> matches = taxa.results().stream()
+                .filter(taxon -> name.equalsIgnoreCase(taxon.name())
+                    || name.equalsIgnoreCase(taxon.preferred_common_name())
+                    || name.equalsIgnoreCase(taxon.matched_term()))
+                .toList();
+            log.debug("Resolved the taxon name ({}) to {} taxa", name, matches.size());
+            return matches;
+        }
+        catch (RuntimeException ex) {
+            log.warn("Failed to resolve the taxon name ({}): {}", name, ex.getMessage());
+            return null;
+        }
+    }
+
+    private void record(String source, long start) {
+        Timer.builder("inat.taxon.resolve")
+            .description("The time taken to resolve a taxon name, by where the result came from (memory, store, inat or failed).")
+            .tag("source", source)
+            .register(meterRegistry)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+}
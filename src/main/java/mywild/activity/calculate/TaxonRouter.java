@@ -0,0 +1,50 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Taxon;
+
+/**
+ * Routes the observations of a multi-taxon (union) query to the steps whose taxon the observation falls under.
+ */
+class TaxonRouter {
+
+    private final Map<Integer, List<Integer>> stepsByTaxon = new HashMap<>();
+
+    void addTaxon(int taxonId, int step) {
+        stepsByTaxon.computeIfAbsent(taxonId, key -> new ArrayList<>()).add(step);
+    }
+
+    Set<Integer> getTaxonIds() {
+        return new TreeSet<>(stepsByTaxon.keySet());
+    }
+
+    /**
+     * @return The steps of the taxa that the observation's taxon is (or descends from), possibly none.
+     */
+    Set<Integer> route(Observation observation) {
+        Set<Integer> steps = new TreeSet<>();
+        Taxon taxon = observation.taxon();
+        if (taxon == null)
+            return steps;
+        addSteps(taxon.id(), steps);
+        if (taxon.min_species_ancestry_ids() != null) {
+            for (int ancestor : taxon.min_species_ancestry_ids()) {
+                addSteps(ancestor, steps);
+            }
+        }
+        return steps;
+    }
+
+    private void addSteps(int taxonId, Set<Integer> steps) {
+        List<Integer> taxonSteps = stepsByTaxon.get(taxonId);
+        if (taxonSteps != null)
+            steps.addAll(taxonSteps);
+    }
+
+}
@@ -0,0 +1,47 @@
+package mywild.activity.calculate.inaturalist;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * A query against the iNaturalist API. The query params are kept sorted, so that equal queries produce equal URIs.
+ */
+public record INatQuery(
+    String path,
+    SortedMap<String, String> params
+) {
+
+    public static INatQuery of(String path, Map<String, String> params) {
+        return new INatQuery(path, Collections.unmodifiableSortedMap(new TreeMap<>(params)));
+    }
+
+    public INatQuery withPath(String newPath) {
+        return new INatQuery(newPath, params);
+    }
+
+    public INatQuery with(String key, Object value) {
+        TreeMap<String, String> newParams = new TreeMap<>(params);
+        newParams.put(key, String.valueOf(value));
+        return new INatQuery(path, Collections.unmodifiableSortedMap(newParams));
+    }
+
+    public INatQuery without(String key) {
+        TreeMap<String, String> newParams = new TreeMap<>(params);
+        newParams.remove(key);
+        return new INatQuery(path, Collections.unmodifiableSortedMap(newParams));
+    }
+
+    public String get(String key) {
+        return params.get(key);
+    }
+
+    public String toUri() {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromPath(path);
+        params.forEach(builder::queryParam);
+        return builder.toUriString();
+    }
+
+}
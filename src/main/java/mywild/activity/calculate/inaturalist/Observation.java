@@ -1,20 +1,39 @@
 package mywild.activity.calculate.inaturalist;
 
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+
 public record Observation(
     int id,
-    String uri,
-    // String quality_grade,
+    // String uri,
+    String quality_grade,
     User user,
-    // ZonedDateTime time_observed_at,
+    String observed_on,
+    ZonedDateTime time_observed_at,
     // String observed_time_zone,
     Taxon taxon,
-    // boolean captive,
-    String taxon_geoprivacy,
-    int positional_accuracy,
-    boolean obscured,
-    String location,
-    boolean mappable
+    boolean captive,
+    // String taxon_geoprivacy,
+    // int positional_accuracy,
+    // boolean obscured,
+    double latitude, // Decoded from the "lat,lng" location, NaN when the observation has no location
+    double longitude
+    // boolean mappable
     // String place_guess,
     // List<Integer> place_ids,
     // List<Annotation> annotations
-) {}
+) {
+
+    /**
+     * The same order as iNaturalist's "order_by=observed_on", with the time and id to break ties.
+     */
+    public static final Comparator<Observation> OBSERVED_ORDER = Comparator
+        .comparing(Observation::observed_on, Comparator.nullsLast(Comparator.naturalOrder()))
+        .thenComparing(Observation::time_observed_at, Comparator.nullsLast(Comparator.naturalOrder()))
+        .thenComparingInt(Observation::id);
+
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+}
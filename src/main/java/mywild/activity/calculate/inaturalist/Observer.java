@@ -0,0 +1,7 @@
+package mywild.activity.calculate.inaturalist;
+
+public record Observer(
+    int observation_count,
+    int species_count,
+    User user
+) {}
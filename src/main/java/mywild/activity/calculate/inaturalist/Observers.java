@@ -0,0 +1,10 @@
+package mywild.activity.calculate.inaturalist;
+
+import java.util.List;
+
+public record Observers(
+    int total_results,
+    int page,
+    int per_page,
+    List<Observer> results
+) {}
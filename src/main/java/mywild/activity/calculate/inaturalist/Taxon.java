@@ -4,11 +4,13 @@ public record Taxon(
     int id,
     boolean is_active,
     String min_species_ancestry,
+    int[] min_species_ancestry_ids, // Only decoded for the taxa of observations
     // boolean endemic,
     // boolean threatened,
     int rank_level,
     String rank,
     // boolean introduced,
-    // String preferred_common_name,
-    String name
+    String preferred_common_name,
+    String name,
+    String matched_term // Only included in the taxa search results
 ) {}
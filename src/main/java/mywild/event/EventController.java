@@ -8,12 +8,14 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import mywild.core.rest.Paged;
 import mywild.core.security.jwt.Utils;
+import mywild.job.Job;
 
 @Tag(name = "Events", description = "Manage Events.")
 @RestController
@@ -53,10 +55,18 @@ public class EventController {
         service.deleteEvent(Utils.getUserIdFromJwt(jwtToken), eventId);
     }
 
-    @Operation(summary = "Calculate all of the Activities in the Event.")
+    @Operation(summary = "Queue all of the Activities in the Event to be calculated (only the new observations, unless a rebuild is requested).",
+        description = "When the same calculation is already queued or running, that Job is returned instead. A retry with the same Idempotency-Key (by the same User) returns the same Job.")
     @PostMapping("/events/{eventId}/calculate")
-    public void calculateEvent(@PathVariable String eventId, JwtAuthenticationToken jwtToken) {
-        service.calculateEvent(Utils.getUserIdFromJwt(jwtToken), eventId);
+    public Job calculateEvent(@PathVariable String eventId, @RequestParam(defaultValue = "false") boolean rebuild,
+            @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey, JwtAuthenticationToken jwtToken) {
+        return service.calculateEvent(Utils.getUserIdFromJwt(jwtToken), eventId, rebuild, idempotencyKey);
+    }
+
+    @Operation(summary = "Clear the cached iNaturalist results of the Event, so that the next calculation fetches the latest observations.")
+    @DeleteMapping("/events/{eventId}/cache")
+    public void clearEventCache(@PathVariable String eventId, JwtAuthenticationToken jwtToken) {
+        service.clearEventCache(Utils.getUserIdFromJwt(jwtToken), eventId);
     }
 
     @Operation(summary = "Join the Event as an Admin.")
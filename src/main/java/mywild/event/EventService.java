@@ -22,6 +22,7 @@ import mywild.core.error.BadRequestException;
 import mywild.core.error.ForbiddenException;
 import mywild.core.error.NotFoundException;
 import mywild.core.rest.Paged;
+import mywild.job.Job;
 import mywild.user.UserEntity;
 import mywild.user.UserRepository;
 
@@ -100,14 +101,16 @@ public class EventService {
             EventEntity entity = foundEntity.get();
             if (!EventUtils.containsName(entity.getAdmins(), validUser.getUsername()))
                 throw new ForbiddenException("Event cannot be deleted by this User!");
+            calculateService.cancel(id, null, "The Event was deleted.");
             repo.delete(entity);
         }
         // Also delete all associated activities
         activityRepo.findAll(new PartitionKey(id))
             .forEach(activity -> activityRepo.delete(activity));
+        calculateService.clearCache(id);
     }
 
-    public void calculateEvent(@NotNull String userId, @NotNull String id) {
+    public @Valid Job calculateEvent(@NotNull String userId, @NotNull String id, boolean rebuild, String idempotencyKey) {
         UserEntity validUser = getValidUser(userId);
         Optional<EventEntity> foundEntity = repo.findById(id);
         if (!foundEntity.isPresent())
@@ -117,8 +120,18 @@ public class EventService {
             throw new ForbiddenException("Event cannot be calculated by this User!");
         makeSureEventIsNotClosed(entity);
         // Calculate all associated activities
-        activityRepo.findAll(new PartitionKey(id))
-            .forEach(activity -> calculateService.calculateActivity(activity));
+        return calculateService.queueEvent(entity, rebuild, validUser.getId(), idempotencyKey);
+    }
+
+    public void clearEventCache(@NotNull String userId, @NotNull String id) {
+        UserEntity validUser = getValidUser(userId);
+        Optional<EventEntity> foundEntity = repo.findById(id);
+        if (!foundEntity.isPresent())
+            throw new NotFoundException("Could not find the Event to clear the cache of!");
+        EventEntity entity = foundEntity.get();
+        if (!EventUtils.containsName(entity.getAdmins(), validUser.getUsername()))
+            throw new ForbiddenException("Event cache cannot be cleared by this User!");
+        calculateService.clearCache(entity.getId());
     }
 
     public @Valid Event adminJoinEvent(@NotNull String userId, @NotNull String id, @NotNull String adminUsername) {
@@ -0,0 +1,57 @@
+package mywild.job;
+
+import java.time.ZonedDateTime;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+
+@ToString
+@Getter
+@Setter
+@SuperBuilder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class Job {
+
+    @NotBlank
+    private String id;
+
+    @NotNull
+    private JobType type;
+
+    @NotBlank
+    private String eventId;
+
+    private String activityId; // Only set for Activity jobs
+
+    private boolean rebuild;
+
+    @NotNull
+    private JobStatus status;
+
+    private int pagesFetched;
+
+    private int pagesEstimated; // Grows as the total results of each step becomes known
+
+    private int pagesSkipped; // Pages that were not fetched because the result was already known
+
+    private int pagesWasted; // Pages that were fetched ahead, but were not needed because the result was already known
+
+    private int pagesDeduplicated; // Pages that were shared with another step instead of being fetched again
+
+    private int pagesCached; // Pages that were found in the cache of a recent calculation
+
+    private String error;
+
+    private ZonedDateTime queued;
+
+    private ZonedDateTime started;
+
+    private ZonedDateTime finished;
+
+}
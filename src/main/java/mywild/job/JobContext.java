@@ -0,0 +1,221 @@
+package mywild.job;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * The live state of a queued or running Job, shared between the worker doing the calculation and the
+ * callers polling for its progress.
+ */
+@Getter
+public class JobContext {
+
+    private final String id;
+
+    private final JobType type;
+
+    private final String eventId;
+
+    private final String activityId;
+
+    private final boolean rebuild;
+
+    private final ZonedDateTime queued = ZonedDateTime.now();
+
+    private volatile JobStatus status = JobStatus.QUEUED;
+
+    private volatile ZonedDateTime started;
+
+    private volatile ZonedDateTime finished;
+
+    private volatile String error;
+
+    private final AtomicInteger pagesFetched = new AtomicInteger();
+
+    private final AtomicInteger pagesEstimated = new AtomicInteger();
+
+    private final AtomicInteger pagesSkipped = new AtomicInteger();
+
+    private final AtomicInteger pagesWasted = new AtomicInteger();
+
+    private final AtomicInteger pagesDeduplicated = new AtomicInteger();
+
+    private final AtomicInteger pagesCached = new AtomicInteger();
+
+    @Getter(AccessLevel.NONE)
+    private Thread worker; // Guarded by runningActivities
+
+    private volatile String cancelReason;
+
+    private volatile boolean suspended; // Cancelled to be continued later on, instead of for good
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, String> cancelledActivities = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Thread> runningActivities = new HashMap<>(); // Guarded by itself
+
+    JobContext(String id, JobType type, String eventId, String activityId, boolean rebuild) {
+        this.id = id;
+        this.type = type;
+        this.eventId = eventId;
+        this.activityId = activityId;
+        this.rebuild = rebuild;
+    }
+
+    public void pageFetched() {
+        pagesFetched.incrementAndGet();
+    }
+
+    public void addPagesEstimated(int pages) {
+        pagesEstimated.addAndGet(pages);
+    }
+
+    public void addPagesSkipped(int pages) {
+        pagesSkipped.addAndGet(pages);
+    }
+
+    public void addPagesWasted(int pages) {
+        pagesWasted.addAndGet(pages);
+    }
+
+    public void pageDeduplicated() {
+        pagesDeduplicated.incrementAndGet();
+    }
+
+    public void pageCached() {
+        pagesCached.incrementAndGet();
+    }
+
+    /**
+     * Register the current thread as calculating the Activity, so that it can be interrupted when cancelled.
+     */
+    public void startActivity(String activityId) {
+        synchronized (runningActivities) {
+            runningActivities.put(activityId, Thread.currentThread());
+        }
+    }
+
+    public void finishActivity(String activityId) {
+        synchronized (runningActivities) {
+            runningActivities.remove(activityId);
+            if (cancelledActivities.containsKey(activityId))
+                Thread.interrupted(); // Do not leave a late cancellation behind on the (reused) thread
+        }
+    }
+
+    boolean isActivityRunning(String activityId) {
+        synchronized (runningActivities) {
+            return runningActivities.containsKey(activityId);
+        }
+    }
+
+    /**
+     * @return Why the calculation of the Activity (or the whole Job when null) was cancelled, or null if it was not.
+     */
+    public String getCancelReason(String activityId) {
+        String reason = cancelReason;
+        if (reason == null && activityId != null)
+            reason = cancelledActivities.get(activityId);
+        return reason;
+    }
+
+    /**
+     * Stop the whole Job, interrupting the calculations that are running.
+     */
+    void cancel(String reason) {
+        cancelReason = reason;
+        synchronized (runningActivities) {
+            if (worker != null)
+                worker.interrupt();
+            runningActivities.values().forEach(Thread::interrupt);
+        }
+    }
+
+    /**
+     * Stop the whole Job like cancel, but the calculations save their checkpoints so that they can continue later on.
+     */
+    void suspend(String reason) {
+        suspended = true;
+        cancel(reason);
+    }
+
+    /**
+     * Stop calculating the Activity, the other Activities of the Job continue.
+     */
+    public void cancelActivity(String activityId, String reason) {
+        synchronized (runningActivities) {
+            cancelledActivities.putIfAbsent(activityId, reason);
+            Thread thread = runningActivities.get(activityId);
+            if (thread != null)
+                thread.interrupt();
+        }
+    }
+
+    /**
+     * The worker is done with the Job, forget it so that a late cancellation cannot interrupt the next Job on the
+     * (reused) worker, and clear any cancellation that already arrived.
+     */
+    void release() {
+        synchronized (runningActivities) {
+            worker = null;
+        }
+        Thread.interrupted();
+    }
+
+    void start() {
+        synchronized (runningActivities) {
+            worker = Thread.currentThread();
+        }
+        started = ZonedDateTime.now();
+        status = JobStatus.RUNNING;
+    }
+
+    void done() {
+        finished = ZonedDateTime.now();
+        status = JobStatus.DONE;
+    }
+
+    void fail(String message) {
+        error = message;
+        finished = ZonedDateTime.now();
+        status = JobStatus.FAILED;
+    }
+
+    void cancelled(String message) {
+        error = message;
+        finished = ZonedDateTime.now();
+        status = JobStatus.CANCELLED;
+    }
+
+    boolean isFinished() {
+        return status == JobStatus.DONE || status == JobStatus.FAILED || status == JobStatus.CANCELLED;
+    }
+
+    Job toDto() {
+        return Job.builder()
+            .id(id)
+            .type(type)
+            .eventId(eventId)
+            .activityId(activityId)
+            .rebuild(rebuild)
+            .status(status)
+            .pagesFetched(pagesFetched.get())
+            .pagesEstimated(pagesEstimated.get())
+            .pagesSkipped(pagesSkipped.get())
+            .pagesWasted(pagesWasted.get())
+            .pagesDeduplicated(pagesDeduplicated.get())
+            .pagesCached(pagesCached.get())
+            .error(error)
+            .queued(queued)
+            .started(started)
+            .finished(finished)
+            .build();
+    }
+
+}
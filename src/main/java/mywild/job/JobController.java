@@ -0,0 +1,25 @@
+package mywild.job;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import mywild.core.security.jwt.Utils;
+
+@Tag(name = "Jobs", description = "Track queued and running calculations.")
+@RestController
+public class JobController {
+
+    @Autowired
+    private JobService service;
+
+    @Operation(summary = "Find the status and progress of a calculation Job.")
+    @GetMapping("/jobs/{jobId}")
+    public Job findJob(@PathVariable String jobId, JwtAuthenticationToken jwtToken) {
+        return service.findJob(Utils.getUserIdFromJwt(jwtToken), jobId);
+    }
+
+}
@@ -0,0 +1,319 @@
+package mywild.job;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import mywild.core.error.BadRequestException;
+import mywild.core.error.ForbiddenException;
+import mywild.core.error.NotFoundException;
+import mywild.core.error.TooManyRequestsException;
+import mywild.event.EventEntity;
+import mywild.event.EventRepository;
+import mywild.event.EventUtils;
+import mywild.user.UserEntity;
+import mywild.user.UserRepository;
+
+/**
+ * Runs the (long running) calculation Jobs on a bounded pool of workers, and keeps track of their progress.
+ */
+@Slf4j
+@Validated
+@Service
+public class JobService {
+
+    private static final Duration CANCEL_WAIT = Duration.ofSeconds(30);
+
+    private static final Duration CANCEL_POLL = Duration.ofMillis(50);
+
+    @Value("${mywild.wildevents.calculate-workers}")
+    private int workers;
+
+    @Value("${mywild.wildevents.calculate-queue-size}")
+    private int queueSize;
+
+    @Value("${mywild.wildevents.job-retention-minutes}")
+    private int retentionMinutes;
+
+    @Value("${mywild.wildevents.job-idempotency-minutes}")
+    private int idempotencyMinutes;
+
+    @Value("${mywild.wildevents.calculate-shutdown-seconds}")
+    private int shutdownSeconds;
+
+    @Autowired
+    private EventRepository eventRepo;
+
+    @Autowired
+    private UserRepository userRepo;
+
+    private final Map<String, JobContext> jobs = new ConcurrentHashMap<>();
+
+    private final Map<String, IdempotentRequest> idempotencyKeys = new ConcurrentHashMap<>();
+
+    private final Set<String> calculatingActivities = new HashSet<>(); // Guarded by activityLock
+
+    private final Lock activityLock = new ReentrantLock();
+
+    private final Condition activityFinished = activityLock.newCondition();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(queueSize),
+            runnable -> new Thread(runnable, "calculate-" + threadCount.incrementAndGet()));
+    }
+
+    /**
+     * Give the running Jobs some time to finish when the application stops, the Jobs that are still running after that
+     * are suspended (saving their checkpoints), to be continued after the restart. The queued Jobs are dropped.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void drain() throws InterruptedException {
+        executor.shutdown();
+        List<Runnable> dropped = new ArrayList<>();
+        executor.getQueue().drainTo(dropped);
+        if (!dropped.isEmpty())
+            log.info("Dropped {} queued Jobs because the application is stopping.", dropped.size());
+        if (executor.awaitTermination(shutdownSeconds, TimeUnit.SECONDS))
+            return;
+        for (JobContext context : jobs.values()) {
+            if (context.getStatus() == JobStatus.RUNNING) {
+                log.info("Suspending Job ({}) because the application is stopping.", context.getId());
+                context.suspend("The application is stopping.");
+            }
+        }
+        if (!executor.awaitTermination(CANCEL_WAIT.toSeconds(), TimeUnit.SECONDS))
+            log.warn("Jobs did not stop within {} seconds after being suspended.", CANCEL_WAIT.toSeconds());
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public @Valid Job findJob(@NotNull String userId, @NotNull String id) {
+        Optional<UserEntity> userEntity = userRepo.findById(userId);
+        if (!userEntity.isPresent())
+            throw new ForbiddenException("Incorrect User ID!");
+        JobContext context = jobs.get(id);
+        if (context == null)
+            throw new NotFoundException("Job not found!");
+        Optional<EventEntity> eventEntity = eventRepo.findById(context.getEventId());
+        if (!eventEntity.isPresent()) // Without the Event there is no way to know who may see the Job
+            throw new NotFoundException("Job not found!");
+        if (!EventUtils.containsName(eventEntity.get().getAdmins(), userEntity.get().getUsername()))
+            throw new ForbiddenException("Job not accessible by this User!");
+        return context.toDto();
+    }
+
+    /**
+     * Queue the work to be done by the next available worker. The returned Job can be used to poll the progress.
+     * When a queued or running Job already does the same work, that Job is returned instead of queueing the work again.
+     * @param userId The User that requested the work, or null when the application requested it.
+     * @param idempotencyKey Optional, a retry with the same key (within the idempotency window) by the same User returns
+     *        the same Job.
+     */
+    public synchronized Job submit(@NotNull JobType type, @NotNull String eventId, String activityId, boolean rebuild,
+            String userId, String idempotencyKey, @NotNull Consumer<JobContext> work) {
+        removeExpiredJobs();
+        String request = type + ":" + eventId + ":" + activityId + ":" + rebuild;
+        String scopedKey = userId + ":" + idempotencyKey; // Each User has their own keys
+        if (idempotencyKey != null) {
+            IdempotentRequest previous = idempotencyKeys.get(scopedKey);
+            if (previous != null) {
+                if (!previous.request().equals(request))
+                    throw new BadRequestException("The Idempotency-Key was already used for a different calculation!");
+                JobContext context = jobs.get(previous.jobId());
+                if (context != null) {
+                    log.debug("Returning Job ({}) for the retried request ({})", context.getId(), idempotencyKey);
+                    return context.toDto();
+                }
+            }
+        }
+        JobContext context = findInFlight(type, eventId, activityId, rebuild);
+        if (context != null) {
+            log.debug("Attached to the {} Job ({}) for Event ({})", context.getStatus(), context.getId(), eventId);
+        }
+        else {
+            context = queue(type, eventId, activityId, rebuild, work);
+        }
+        if (idempotencyKey != null)
+            idempotencyKeys.put(scopedKey, new IdempotentRequest(context.getId(), request, ZonedDateTime.now()));
+        return context.toDto();
+    }
+
+    private JobContext queue(JobType type, String eventId, String activityId, boolean rebuild, Consumer<JobContext> work) {
+        JobContext context = new JobContext(UUID.randomUUID().toString(), type, eventId, activityId, rebuild);
+        jobs.put(context.getId(), context);
+        try {
+            executor.execute(() -> run(context, work));
+        }
+        catch (RejectedExecutionException ex) {
+            jobs.remove(context.getId());
+            throw new TooManyRequestsException("Too many calculations are queued, please try again later!", ex);
+        }
+        log.debug("Queued {} Job ({}) for Event ({})", type, context.getId(), eventId);
+        return context;
+    }
+
+    /**
+     * Find the queued or running Job that already does the requested work. A rebuild is only covered by another rebuild,
+     * and a queued Event Job also covers its Activities (once running it might have calculated them already).
+     */
+    private JobContext findInFlight(JobType type, String eventId, String activityId, boolean rebuild) {
+        for (JobContext context : jobs.values()) {
+            if (context.isFinished() || !context.getEventId().equals(eventId) || (rebuild && !context.isRebuild())
+                    || context.getCancelReason(activityId) != null)
+                continue;
+            if (context.getType() == type && Objects.equals(context.getActivityId(), activityId))
+                return context;
+            if (type == JobType.ACTIVITY && context.getType() == JobType.EVENT && context.getStatus() == JobStatus.QUEUED)
+                return context;
+        }
+        return null;
+    }
+
+    /**
+     * Cancel the queued and running calculations of the Event (or only those of the Activity), and wait for them to
+     * stop, so that they do not overwrite the changes that caused the cancellation.
+     */
+    public void cancel(@NotNull String eventId, String activityId, @NotNull String reason) {
+        List<JobContext> cancelled = new ArrayList<>();
+        for (JobContext context : jobs.values()) {
+            if (context.isFinished() || !context.getEventId().equals(eventId))
+                continue;
+            if (activityId == null || activityId.equals(context.getActivityId()))
+                context.cancel(reason);
+            else if (context.getType() == JobType.EVENT)
+                context.cancelActivity(activityId, reason);
+            else
+                continue;
+            log.debug("Cancelling Job ({}): {}", context.getId(), reason);
+            cancelled.add(context);
+        }
+        long waitUntil = System.nanoTime() + CANCEL_WAIT.toNanos();
+        for (JobContext context : cancelled) {
+            while (context.getStatus() == JobStatus.RUNNING
+                    && (context.getCancelReason(null) != null ? !context.isFinished() : context.isActivityRunning(activityId))) {
+                if (System.nanoTime() > waitUntil) {
+                    log.warn("Job ({}) did not stop within {} seconds after being cancelled.", context.getId(), CANCEL_WAIT.toSeconds());
+                    return;
+                }
+                try {
+                    Thread.sleep(CANCEL_POLL);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claim the Activity for the calculation of the current Job, waiting while another Job is still calculating it,
+     * so that two Jobs never save the results of the same Activity at the same time.
+     * @return If the claim had to wait for another Job, then the Activity has changed in the meantime.
+     */
+    public boolean claimActivity(@NotNull String activityId) throws InterruptedException {
+        activityLock.lockInterruptibly();
+        try {
+            boolean waited = false;
+            while (!calculatingActivities.add(activityId)) {
+                waited = true;
+                activityFinished.await();
+            }
+            return waited;
+        }
+        finally {
+            activityLock.unlock();
+        }
+    }
+
+    public void releaseActivity(@NotNull String activityId) {
+        activityLock.lock();
+        try {
+            calculatingActivities.remove(activityId);
+            activityFinished.signalAll();
+        }
+        finally {
+            activityLock.unlock();
+        }
+    }
+
+    private void run(JobContext context, Consumer<JobContext> work) {
+        if (context.getCancelReason(null) != null) {
+            context.cancelled(context.getCancelReason(null));
+            log.debug("Skipped cancelled Job ({})", context.getId());
+            return;
+        }
+        log.debug("Starting Job ({})", context.getId());
+        context.start();
+        try {
+            work.accept(context);
+            if (context.getCancelReason(null) != null) // Cancelled while waiting, the work stopped without failing
+                throw new CancellationException(context.getCancelReason(null));
+            context.done();
+            log.debug("Finished Job ({})", context.getId());
+        }
+        catch (CancellationException ex) {
+            log.info("Cancelled Job ({}): {}", context.getId(), ex.getMessage());
+            context.cancelled(ex.getMessage());
+        }
+        catch (Throwable ex) {
+            if (context.getCancelReason(null) != null) {
+                log.info("Cancelled Job ({}): {}", context.getId(), context.getCancelReason(null));
+                context.cancelled(context.getCancelReason(null));
+            }
+            else {
+                log.error("Failed Job ({})!", context.getId(), ex);
+                context.fail(ex.getMessage());
+            }
+        }
+        finally {
+            context.release();
+        }
+    }
+
+    private void removeExpiredJobs() {
+        ZonedDateTime expired = ZonedDateTime.now().minusMinutes(retentionMinutes);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinished().isBefore(expired));
+        ZonedDateTime expiredKeys = ZonedDateTime.now().minusMinutes(idempotencyMinutes);
+        idempotencyKeys.values().removeIf(key -> key.created().isBefore(expiredKeys));
+    }
+
+    private record IdempotentRequest(String jobId, String request, ZonedDateTime created) {}
+
+}
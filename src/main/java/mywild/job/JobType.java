@@ -0,0 +1,6 @@
+package mywild.job;
+
+public enum JobType {
+    ACTIVITY, // Calculate a single Activity
+    EVENT // Calculate all of the Activities in an Event
+}
@@ -0,0 +1,28 @@
+package mywild.activity.calculate;
+
+import java.util.Collection;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of a class from a (benchmark tagged) test, with the allocation profiler so that the bytes
+ * allocated per operation are reported next to the time.
+ */
+final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    static Collection<RunResult> run(Class<?> benchmark) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .include(benchmark.getName() + "\\.")
+            .addProfiler(GCProfiler.class)
+            .shouldFailOnError(true);
+        return new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,106 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import mywild.activity.ActivityCalculation;
+import mywild.activity.ActivityEntity;
+import mywild.activity.ActivityStep;
+import mywild.activity.ActivityStepResult;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.User;
+import mywild.event.EventEntity;
+
+class CalculateExploreTest {
+
+    private final Participants participants = Participants.of(EventEntity.builder().participants("#alice,#bob").build());
+
+    @Test
+    void eachQuadrantScoresOncePerParticipant() {
+        StepCalculator calculator = begin(Map.of());
+        calculator.accept(List.of(
+            observation(1, "alice", 2, 2),
+            observation(2, "alice", 3, 3),
+            observation(3, "alice", 2, 8),
+            observation(4, "alice", 8, 2),
+            observation(5, "alice", 8, 8),
+            observation(6, "bob", 8, 8)));
+        ActivityStepResult result = calculator.finish();
+        assertThat(result.getStepId()).isEqualTo("step");
+        assertThat(score(result, "alice").getScore()).isEqualTo(4);
+        assertThat(score(result, "alice").getCells()).containsExactly(0, 1, 2, 3);
+        assertThat(score(result, "bob").getScore()).isEqualTo(1);
+        assertThat(score(result, "bob").getCells()).containsExactly(3);
+    }
+
+    @Test
+    void locationOnTheMidlinesFallsInOneCell() {
+        StepCalculator calculator = begin(Map.of());
+        calculator.accept(List.of(observation(1, "alice", 5, 5)));
+        assertThat(score(calculator.finish(), "alice").getCells()).containsExactly(3);
+    }
+
+    @Test
+    void northAndEastEdgesBelongToTheLastCells() {
+        StepCalculator calculator = begin(Map.of());
+        calculator.accept(List.of(observation(1, "alice", 10, 10), observation(2, "bob", 0, 0)));
+        ActivityStepResult result = calculator.finish();
+        assertThat(score(result, "alice").getCells()).containsExactly(3);
+        assertThat(score(result, "bob").getCells()).containsExactly(0);
+    }
+
+    @Test
+    void locationsOutsideTheBoxOrMissingDoNotScore() {
+        StepCalculator calculator = begin(Map.of());
+        calculator.accept(List.of(
+            observation(1, "alice", -1, 5),
+            observation(2, "alice", 5, 11),
+            observation(3, "alice", Double.NaN, Double.NaN)));
+        ActivityStepResult result = calculator.finish();
+        assertThat(score(result, "alice").getScore()).isZero();
+        assertThat(score(result, "alice").getCells()).isNull();
+    }
+
+    @Test
+    void nonParticipantsAreIgnored() {
+        StepCalculator calculator = begin(Map.of());
+        calculator.accept(List.of(observation(1, "carol", 2, 2)));
+        ActivityStepResult result = calculator.finish();
+        assertThat(result.getParticipantScores()).containsOnlyKeys("alice", "bob");
+    }
+
+    @Test
+    void gridSizeIsConfigurable() {
+        StepCalculator calculator = begin(Map.of("grid_rows", "1", "grid_cols", "5"));
+        calculator.accept(List.of(observation(1, "alice", 2, 1), observation(2, "alice", 8, 9)));
+        assertThat(score(calculator.finish(), "alice").getCells()).containsExactly(0, 4);
+    }
+
+    @Test
+    void resumedCoverageKeepsTheScore() {
+        StepCalculator calculator = begin(Map.of());
+        calculator.accept(List.of(observation(1, "alice", 2, 2), observation(2, "alice", 8, 8)));
+        StepCalculator resumed = begin(Map.of());
+        resumed.resumeCoverage(calculator.getResumeCoverage());
+        resumed.accept(List.of(observation(3, "alice", 2, 3), observation(4, "alice", 2, 8)));
+        assertThat(score(resumed.finish(), "alice").getCells()).containsExactly(0, 1, 3);
+    }
+
+    private StepCalculator begin(Map<String, String> scoring) {
+        Map<String, String> criteria = new HashMap<>(Map.of("nelat", "10", "nelng", "10", "swlat", "0", "swlng", "0"));
+        criteria.putAll(scoring);
+        ActivityStep step = ActivityStep.builder().id("step").criteria(criteria).build();
+        return new CalculateExplore().begin(new ActivityEntity(), participants, step);
+    }
+
+    private static ActivityCalculation score(ActivityStepResult result, String participant) {
+        return result.getParticipantScores().get(participant);
+    }
+
+    private static Observation observation(int id, String login, double lat, double lng) {
+        return new Observation(id, "research", new User(0, login, null), "2024-01-01", null, null, false, lat, lng);
+    }
+
+}
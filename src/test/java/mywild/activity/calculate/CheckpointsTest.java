@@ -0,0 +1,66 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mywild.activity.ActivityStepResult;
+import mywild.activity.ActivityStepState;
+import mywild.activity.calculate.inaturalist.Observation;
+
+class CheckpointsTest {
+
+    @Test
+    void trackedStepIsCheckpointedWithItsWatermark() {
+        Checkpoints checkpoints = new Checkpoints();
+        checkpoints.track("step", "query");
+        ResumableCalculator calculator = calculator();
+        calculator.accept(List.of(observation(5), observation(9)));
+        checkpoints.update("step", calculator);
+        assertThat(checkpoints.take()).singleElement().satisfies(state -> {
+            assertThat(state.getStepId()).isEqualTo("step");
+            assertThat(state.getQuery()).isEqualTo("query");
+            assertThat(state.getLastObservationId()).isEqualTo(9);
+        });
+    }
+
+    @Test
+    void untrackedStepIsNotCheckpointed() {
+        Checkpoints checkpoints = new Checkpoints();
+        checkpoints.update("step", calculator());
+        assertThat(checkpoints.take()).isEmpty();
+    }
+
+    @Test
+    void finishedStepDropsItsCheckpoint() {
+        Checkpoints checkpoints = new Checkpoints();
+        checkpoints.track("step", "query");
+        checkpoints.update("step", calculator());
+        checkpoints.finish("step");
+        checkpoints.update("step", calculator()); // A late update of the finished step
+        assertThat(checkpoints.take()).extracting(ActivityStepState::getStepId).isEmpty();
+    }
+
+    private static ResumableCalculator calculator() {
+        return new ResumableCalculator(new StepCalculator() {
+            @Override
+            public void accept(List<Observation> observations) {
+            }
+
+            @Override
+            public ActivityStepResult finish() {
+                return null;
+            }
+
+            @Override
+            public List<Observation> getResumeObservations() {
+                return null;
+            }
+        }, new SimpleMeterRegistry().timer("score"));
+    }
+
+    private static Observation observation(int id) {
+        return new Observation(id, "research", null, "2024-01-01", null, null, false, Double.NaN, Double.NaN);
+    }
+
+}
@@ -0,0 +1,148 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import mywild.activity.ActivityCalculation;
+import mywild.activity.ActivityEntity;
+import mywild.activity.ActivityStep;
+import mywild.activity.ActivityStepResult;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.User;
+import mywild.event.EventEntity;
+
+/**
+ * Scoring the default 2x2 Explore grid for 20k observations of 500 participants: by parsing the "lat,lng" location
+ * and checking the four quadrants against per-quadrant participant sets (as before the arithmetic quadrants), and by
+ * the current calculator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExploreBenchmark {
+
+    private static final int OBSERVATIONS = 20_000;
+
+    private static final int PARTICIPANTS = 500;
+
+    private final List<String> logins = IntStream.range(0, PARTICIPANTS).mapToObj(i -> "participant" + i).toList();
+
+    private final Participants participants = Participants.of(EventEntity.builder()
+        .participants(logins.stream().map(login -> "#" + login).collect(Collectors.joining(",")))
+        .build());
+
+    private final ActivityStep step = ActivityStep.builder()
+        .id("step")
+        .criteria(Map.of("nelat", "-33.0", "nelng", "19.0", "swlat", "-34.0", "swlng", "18.0"))
+        .build();
+
+    private final List<Observation> observations = IntStream.range(0, OBSERVATIONS)
+        .mapToObj(id -> new Observation(id, "research", new User(0, logins.get((id * 7919) % PARTICIPANTS), null),
+            "2024-01-01", null, null, false, -34.0 + (id % 97) / 96.0, 18.0 + (id % 89) / 88.0))
+        .toList();
+
+    private final List<LegacyObservation> legacyObservations = observations.stream()
+        .map(observation -> new LegacyObservation(observation.id(), observation.user().login(),
+            observation.latitude() + "," + observation.longitude()))
+        .toList();
+
+    @Benchmark
+    public ActivityStepResult parsedQuadrants() {
+        Map<String, ActivityCalculation> calculationResults = new HashMap<>(PARTICIPANTS);
+        Map<String, String> criteria = step.getCriteria();
+        double neLat = Double.parseDouble(criteria.get("nelat"));
+        double neLng = Double.parseDouble(criteria.get("nelng"));
+        double swLat = Double.parseDouble(criteria.get("swlat"));
+        double swLng = Double.parseDouble(criteria.get("swlng"));
+        double deltaLat = (neLat - swLat) / 2.0;
+        double deltaLng = (neLng - swLng) / 2.0;
+        Set<String> q1 = new HashSet<>(PARTICIPANTS);
+        Set<String> q2 = new HashSet<>(PARTICIPANTS);
+        Set<String> q3 = new HashSet<>(PARTICIPANTS);
+        Set<String> q4 = new HashSet<>(PARTICIPANTS);
+        for (LegacyObservation observation : legacyObservations) {
+            String participant = observation.login().toLowerCase();
+            ActivityCalculation activityCalculation = calculationResults.get(participant);
+            if (activityCalculation == null) {
+                activityCalculation = new ActivityCalculation(0, new ArrayList<>(4), null);
+                calculationResults.put(participant, activityCalculation);
+            }
+            String[] location = observation.location().split(",");
+            double obsLat = Double.parseDouble(location[0]);
+            double obsLng = Double.parseDouble(location[1]);
+            if (!q1.contains(participant)
+                    && obsLat <= neLat && obsLat > (neLat - deltaLat)
+                    && obsLng <= neLng && obsLng >= (neLng - deltaLng)) {
+                q1.add(participant);
+                activityCalculation.setScore(activityCalculation.getScore() + 1);
+                activityCalculation.getObservations().add(observation.id());
+            }
+            if (!q2.contains(participant)
+                    && obsLat <= (swLat + deltaLat) && obsLat >= swLat
+                    && obsLng <= neLng && obsLng > (neLng - deltaLng)) {
+                q2.add(participant);
+                activityCalculation.setScore(activityCalculation.getScore() + 1);
+                activityCalculation.getObservations().add(observation.id());
+            }
+            if (!q3.contains(participant)
+                    && obsLat < (swLat + deltaLat) && obsLat >= swLat
+                    && obsLng <= (swLng + deltaLng) && obsLng >= swLng) {
+                q3.add(participant);
+                activityCalculation.setScore(activityCalculation.getScore() + 1);
+                activityCalculation.getObservations().add(observation.id());
+            }
+            if (!q4.contains(participant)
+                    && obsLat <= neLat && obsLat >= (neLat - deltaLat)
+                    && obsLng < (swLng + deltaLng) && obsLng >= swLng) {
+                q4.add(participant);
+                activityCalculation.setScore(activityCalculation.getScore() + 1);
+                activityCalculation.getObservations().add(observation.id());
+            }
+        }
+        for (String participant : logins) {
+            calculationResults.putIfAbsent(participant, new ActivityCalculation(0, null, null));
+        }
+        return new ActivityStepResult(step.getId(), calculationResults);
+    }
+
+    @Benchmark
+    public ActivityStepResult gridCells() {
+        StepCalculator calculator = new CalculateExplore().begin(new ActivityEntity(), participants, step);
+        calculator.accept(observations);
+        return calculator.finish();
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark() throws RunnerException {
+        BenchmarkRunner.run(ExploreBenchmark.class);
+    }
+
+    public record LegacyObservation(
+        int id,
+        String login,
+        String location
+    ) {}
+
+}
@@ -0,0 +1,63 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class INatRateLimiterTest {
+
+    @Test
+    void grantsTheBurstWithoutWaiting() throws InterruptedException {
+        INatRateLimiter limiter = limiter(3, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+        assertThat(limiter.getTokens()).isLessThan(1);
+    }
+
+    @Test
+    void waitsForTheRefillAfterTheBurst() throws InterruptedException {
+        INatRateLimiter limiter = limiter(1, 600); // A permit every 100ms
+        limiter.acquire();
+        long start = System.nanoTime();
+        limiter.acquire();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(80);
+    }
+
+    @Test
+    void returnsThePermitWhenTheWaitIsInterrupted() throws Exception {
+        INatRateLimiter limiter = limiter(1, 1); // A permit every minute
+        limiter.acquire();
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                limiter.acquire();
+                interrupted.complete(false);
+            }
+            catch (InterruptedException ex) {
+                interrupted.complete(true);
+            }
+        });
+        while (limiter.getTokens() > -0.5) { // Wait for the permit to be reserved
+            Thread.sleep(5);
+        }
+        waiter.interrupt();
+        assertThat(interrupted.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(limiter.getTokens()).isGreaterThan(-0.5);
+    }
+
+    private static INatRateLimiter limiter(int burst, int requestsPerMinute) {
+        INatRateLimiter limiter = new INatRateLimiter();
+        ReflectionTestUtils.setField(limiter, "burst", burst);
+        ReflectionTestUtils.setField(limiter, "requestsPerMinute", requestsPerMinute);
+        ReflectionTestUtils.setField(limiter, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(limiter, "init");
+        return limiter;
+    }
+
+}
@@ -0,0 +1,28 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+class IntListTest {
+
+    @Test
+    void listGrowsPastItsCapacity() {
+        IntList list = new IntList(2);
+        for (int i = 0; i < 5; i++) {
+            list.add(i * 10);
+        }
+        assertThat(list.size()).isEqualTo(5);
+        assertThat(list.get(4)).isEqualTo(40);
+        assertThat(list.toList()).containsExactly(0, 10, 20, 30, 40);
+    }
+
+    @Test
+    void emptyListHasNoValues() {
+        IntList list = new IntList(0);
+        assertThat(list.size()).isZero();
+        assertThat(list.toList()).isEmpty();
+        list.add(7);
+        assertThat(list.toList()).containsExactly(7);
+    }
+
+}
@@ -0,0 +1,81 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+
+class ObservationCacheTest {
+
+    private static final INatQuery QUERY = INatQuery.of("observations", Map.of("taxon_id", "1"));
+
+    private ObservationCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ObservationCache();
+        ReflectionTestUtils.setField(cache, "maxPages", 2);
+        ReflectionTestUtils.setField(cache, "cacheMinutes", 15);
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(cache, "init");
+    }
+
+    @Test
+    void fullKeysetPagesAreStable() {
+        assertThat(ObservationCache.isStable(QUERY.with("id_above", 10), page(100, 2, 2))).isTrue();
+    }
+
+    @Test
+    void shortKeysetPagesCanStillGrow() {
+        assertThat(ObservationCache.isStable(QUERY.with("id_above", 10), page(100, 2, 1))).isFalse();
+    }
+
+    @Test
+    void numberedPagesShiftUnlessTheFirstPageHoldsEverything() {
+        assertThat(ObservationCache.isStable(QUERY.with("page", 1), page(2, 2, 2))).isTrue();
+        assertThat(ObservationCache.isStable(QUERY.with("page", 1), page(3, 2, 2))).isFalse();
+        assertThat(ObservationCache.isStable(QUERY.with("page", 2), page(3, 2, 1))).isFalse();
+    }
+
+    @Test
+    void keepsOnlyTheStablePages() {
+        cache.put("event", QUERY.with("id_above", 10), page(100, 2, 2));
+        cache.put("event", QUERY.with("id_above", 20), page(100, 2, 1));
+        assertThat(cache.get(QUERY.with("id_above", 10))).isNotNull();
+        assertThat(cache.get(QUERY.with("id_above", 20))).isNull();
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedPage() {
+        cache.put("event", QUERY.with("id_above", 1), page(100, 2, 2));
+        cache.put("event", QUERY.with("id_above", 2), page(100, 2, 2));
+        cache.get(QUERY.with("id_above", 1));
+        cache.put("event", QUERY.with("id_above", 3), page(100, 2, 2));
+        assertThat(cache.get(QUERY.with("id_above", 1))).isNotNull();
+        assertThat(cache.get(QUERY.with("id_above", 2))).isNull();
+        assertThat(cache.get(QUERY.with("id_above", 3))).isNotNull();
+    }
+
+    @Test
+    void invalidatesThePagesOfTheEvent() {
+        cache.put("event", QUERY.with("id_above", 1), page(100, 2, 2));
+        cache.put("other", QUERY.with("id_above", 2), page(100, 2, 2));
+        assertThat(cache.invalidate("event")).isEqualTo(1);
+        assertThat(cache.get(QUERY.with("id_above", 1))).isNull();
+        assertThat(cache.get(QUERY.with("id_above", 2))).isNotNull();
+    }
+
+    private static Observations page(int totalResults, int perPage, int results) {
+        List<Observation> observations = Collections.nCopies(results,
+            new Observation(1, "research", null, "2024-01-01", null, null, false, Double.NaN, Double.NaN));
+        return new Observations(totalResults, 1, perPage, observations);
+    }
+
+}
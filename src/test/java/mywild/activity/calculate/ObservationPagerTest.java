@@ -0,0 +1,81 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+
+class ObservationPagerTest {
+
+    private static final INatQuery QUERY = INatQuery.of("observations", Map.of("taxon_id", "1"));
+
+    @Test
+    void keysetWalkContinuesPastAnOutdatedTotal() {
+        SharedPages pages = mock(SharedPages.class);
+        // The first page reports 2 results, but newer observations were added since
+        when(pages.fetch(eq(QUERY.with("id_above", 0)), anyBoolean())).thenReturn(page(2, 1, 2));
+        when(pages.fetch(eq(QUERY.with("id_above", 2)), anyBoolean())).thenReturn(page(2, 3, 4));
+        when(pages.fetch(eq(QUERY.with("id_above", 4)), anyBoolean())).thenReturn(page(2, 5, 5));
+        ObservationPager pager = new ObservationPager(pages, QUERY, true, 2);
+        int observations = 0;
+        Observations next;
+        while ((next = pager.next()) != null) {
+            observations += next.results().size();
+        }
+        assertThat(observations).isEqualTo(5);
+        assertThat(pager.getPage()).isEqualTo(3);
+    }
+
+    @Test
+    void keysetWalkFetchesItsFirstPageFresh() {
+        SharedPages pages = mock(SharedPages.class);
+        when(pages.fetch(any(), anyBoolean())).thenReturn(page(4, 1, 2), page(4, 3, 3));
+        ObservationPager pager = new ObservationPager(pages, QUERY, 10, 2);
+        pager.next();
+        pager.next();
+        verify(pages).fetch(QUERY.with("id_above", 10), false);
+        verify(pages).fetch(QUERY.with("id_above", 2), true);
+        assertThat(pager.next()).isNull();
+    }
+
+    @Test
+    void uncachedWalkFetchesEveryPageFresh() {
+        SharedPages pages = mock(SharedPages.class);
+        when(pages.fetch(any(), anyBoolean())).thenReturn(page(4, 1, 2), page(4, 3, 3));
+        ObservationPager pager = new ObservationPager(pages, QUERY, true, 2).uncached();
+        pager.next();
+        pager.next();
+        verify(pages).fetch(QUERY.with("id_above", 0), false);
+        verify(pages).fetch(QUERY.with("id_above", 2), false);
+    }
+
+    @Test
+    void numberedWalkEndsOnTheLastPage() {
+        SharedPages pages = mock(SharedPages.class);
+        when(pages.fetch(QUERY.with("page", 1), true)).thenReturn(page(4, 1, 2));
+        when(pages.fetch(QUERY.with("page", 2), true)).thenReturn(page(4, 3, 4));
+        ObservationPager pager = new ObservationPager(pages, QUERY, false, 2);
+        assertThat(pager.next()).isNotNull();
+        assertThat(pager.next()).isNotNull();
+        assertThat(pager.next()).isNull();
+        assertThat(pager.getTotalPages()).isEqualTo(2);
+    }
+
+    private static Observations page(int totalResults, int firstId, int lastId) {
+        List<Observation> results = IntStream.rangeClosed(firstId, lastId)
+            .mapToObj(id -> new Observation(id, "research", null, "2024-01-01", null, null, false, Double.NaN, Double.NaN))
+            .toList();
+        return new Observations(totalResults, 1, 2, results);
+    }
+
+}
@@ -0,0 +1,143 @@
+package mywild.activity.calculate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import mywild.activity.calculate.inaturalist.Observations;
+
+/**
+ * Decoding a page of 200 observations, by binding the whole observations to records (as before the streaming
+ * decoder) and by the streaming decoder. Divide the allocated bytes (gc.alloc.rate.norm) by 200 for the allocation
+ * per observation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObservationsDecoderBenchmark {
+
+    static final int PAGE_SIZE = 200;
+
+    private final byte[] page = page(PAGE_SIZE).getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+        .findAndAddModules()
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .build();
+
+    private final ObservationsDecoder decoder = new ObservationsDecoder();
+
+    @Benchmark
+    public LegacyObservations bindRecords() throws IOException {
+        return objectMapper.readValue(new ByteArrayInputStream(page), LegacyObservations.class);
+    }
+
+    @Benchmark
+    public Observations streamDecode() throws IOException {
+        return decoder.decode(new ByteArrayInputStream(page));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark() throws RunnerException {
+        BenchmarkRunner.run(ObservationsDecoderBenchmark.class);
+    }
+
+    /**
+     * A page shaped like the iNaturalist v1 observations, including a share of the fields that nothing reads.
+     */
+    static String page(int size) {
+        StringBuilder json = new StringBuilder("{\"total_results\":100000,\"page\":1,\"per_page\":").append(size)
+            .append(",\"results\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                json.append(',');
+            int id = 200000000 + i;
+            String login = "participant" + (i % 50);
+            json.append("""
+                {"id":%d,"uuid":"4b6b8f0e-0000-4000-8000-%012d","uri":"https://www.inaturalist.org/observations/%d",
+                "quality_grade":"research","species_guess":"Cape Sugarbird","description":null,"obscured":false,
+                "captive":false,"mappable":true,"positional_accuracy":12,"geoprivacy":null,"taxon_geoprivacy":null,
+                "observed_on":"2024-03-%02d","time_observed_at":"2024-03-%02dT08:%02d:00+02:00","observed_time_zone":"Africa/Johannesburg",
+                "created_at":"2024-03-20T10:00:00+02:00","updated_at":"2024-03-21T10:00:00+02:00",
+                "location":"-33.%04d,18.%04d","place_guess":"Table Mountain National Park, Cape Town, South Africa",
+                "place_ids":[6986,7044,9921,113055,118995,127100],"tag_list":[],"faves_count":0,"comments_count":1,
+                "user":{"id":%d,"login":"%s","name":"Participant %d","icon":"https://static.inaturalist.org/attachments/users/icons/1/thumb.jpg",
+                  "observations_count":1234,"identifications_count":567,"species_count":89,"roles":[],"site_id":1},
+                "taxon":{"id":%d,"is_active":true,"min_species_ancestry":"48460,1,2355,3,7251,15977,%d","rank":"species","rank_level":10,
+                  "name":"Promerops cafer","preferred_common_name":"Cape Sugarbird","iconic_taxon_name":"Aves","endemic":true,
+                  "threatened":false,"introduced":false,"native":true,"ancestor_ids":[48460,1,2355,3,7251,15977,%d],
+                  "default_photo":{"id":1,"url":"https://static.inaturalist.org/photos/1/square.jpg","attribution":"(c) someone"}},
+                "photos":[{"id":%d,"url":"https://static.inaturalist.org/photos/%d/square.jpg","attribution":"(c) someone, some rights reserved",
+                  "license_code":"cc-by-nc","original_dimensions":{"width":2048,"height":1536}}],
+                "identifications":[{"id":%d,"current":true,"category":"leading","user":{"id":%d,"login":"%s"},
+                  "taxon":{"id":%d,"name":"Promerops cafer","rank":"species"}}],
+                "annotations":[{"controlled_attribute_id":1,"controlled_value_id":2,"vote_score":1}],
+                "project_ids":[],"sounds":[],"ofvs":[]}""".formatted(
+                    id, i, id, 1 + i % 28, 1 + i % 28, i % 60, i, i, i % 50, login, i % 50,
+                    12000 + i % 300, 12000 + i % 300, 12000 + i % 300, id, id, id, i % 50, login, 12000 + i % 300));
+        }
+        return json.append("]}").toString();
+    }
+
+    public record LegacyObservations(
+        int total_results,
+        int page,
+        int per_page,
+        List<LegacyObservation> results
+    ) {}
+
+    public record LegacyObservation(
+        int id,
+        String uri,
+        String quality_grade,
+        LegacyUser user,
+        String observed_on,
+        ZonedDateTime time_observed_at,
+        LegacyTaxon taxon,
+        boolean captive,
+        String taxon_geoprivacy,
+        int positional_accuracy,
+        boolean obscured,
+        String location,
+        boolean mappable
+    ) {}
+
+    public record LegacyUser(
+        int id,
+        String login,
+        String name
+    ) {}
+
+    public record LegacyTaxon(
+        int id,
+        boolean is_active,
+        String min_species_ancestry,
+        int rank_level,
+        String rank,
+        String preferred_common_name,
+        String name,
+        String matched_term
+    ) {}
+
+}
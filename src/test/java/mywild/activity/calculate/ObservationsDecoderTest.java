@@ -0,0 +1,89 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import org.junit.jupiter.api.Test;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+
+class ObservationsDecoderTest {
+
+    private final ObservationsDecoder decoder = new ObservationsDecoder();
+
+    @Test
+    void pageFieldsAreDecoded() throws IOException {
+        Observations observations = decode("""
+            {"total_results": 2, "page": 3, "per_page": 1, "results": []}""");
+        assertThat(observations.total_results()).isEqualTo(2);
+        assertThat(observations.page()).isEqualTo(3);
+        assertThat(observations.per_page()).isEqualTo(1);
+        assertThat(observations.results()).isEmpty();
+    }
+
+    @Test
+    void usedFieldsAreKeptAndTheRestIsSkipped() throws IOException {
+        Observations observations = decode("""
+            {"total_results": 1, "page": 1, "per_page": 200, "location": null, "results": [{
+                "id": 42,
+                "uri": "https://www.inaturalist.org/observations/42",
+                "quality_grade": "research",
+                "photos": [{"id": 1, "url": "https://example.org/1.jpg", "original_dimensions": {"width": 10}}],
+                "user": {"id": 7, "login": "Alice", "name": "Alice A", "icon": null},
+                "observed_on": "2024-01-02",
+                "time_observed_at": "2024-01-02T08:30:00+02:00",
+                "taxon": {"id": 3, "is_active": true, "min_species_ancestry": "48460,1,2,3", "name": "Aves",
+                    "ancestor_ids": [48460, 1, 2, 3]},
+                "captive": true,
+                "location": "-33.9,18.4",
+                "identifications": [{"taxon": {"id": 4}}]
+            }]}""");
+        assertThat(observations.total_results()).isEqualTo(1);
+        Observation observation = observations.results().get(0);
+        assertThat(observation.id()).isEqualTo(42);
+        assertThat(observation.quality_grade()).isEqualTo("research");
+        assertThat(observation.user().id()).isEqualTo(7);
+        assertThat(observation.user().login()).isEqualTo("alice");
+        assertThat(observation.observed_on()).isEqualTo("2024-01-02");
+        assertThat(observation.time_observed_at()).isEqualTo(ZonedDateTime.parse("2024-01-02T08:30:00+02:00"));
+        assertThat(observation.taxon().id()).isEqualTo(3);
+        assertThat(observation.taxon().is_active()).isTrue();
+        assertThat(observation.taxon().min_species_ancestry_ids()).containsExactly(48460, 1, 2, 3);
+        assertThat(observation.captive()).isTrue();
+        assertThat(observation.latitude()).isEqualTo(-33.9);
+        assertThat(observation.longitude()).isEqualTo(18.4);
+    }
+
+    @Test
+    void missingAndNullFieldsGetDefaults() throws IOException {
+        Observation observation = decode("""
+            {"results": [{"id": 1, "user": null, "taxon": null, "location": null, "time_observed_at": null}]}""")
+            .results().get(0);
+        assertThat(observation.user()).isNull();
+        assertThat(observation.taxon()).isNull();
+        assertThat(observation.time_observed_at()).isNull();
+        assertThat(observation.hasLocation()).isFalse();
+    }
+
+    @Test
+    void repeatingStringsAreShared() throws IOException {
+        Observations observations = decode("""
+            {"results": [{"id": 1, "user": {"login": "bob"}, "observed_on": "2024-01-01"},
+                {"id": 2, "user": {"login": "BOB"}, "observed_on": "2024-01-01"}]}""");
+        assertThat(observations.results().get(0).user().login()).isSameAs(observations.results().get(1).user().login());
+        assertThat(observations.results().get(0).observed_on()).isSameAs(observations.results().get(1).observed_on());
+    }
+
+    @Test
+    void unexpectedResponseFails() {
+        assertThatThrownBy(() -> decode("[]")).isInstanceOf(IOException.class);
+    }
+
+    private Observations decode(String json) throws IOException {
+        return decoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
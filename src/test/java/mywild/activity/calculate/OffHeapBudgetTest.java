@@ -0,0 +1,66 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OffHeapBudgetTest {
+
+    private static final int KB = 1024;
+
+    private OffHeapBudget budget;
+
+    @BeforeEach
+    void setUp() {
+        budget = new OffHeapBudget();
+        ReflectionTestUtils.setField(budget, "budgetMb", 1);
+        ReflectionTestUtils.setField(budget, "spillDir", "target/spill");
+        ReflectionTestUtils.setField(budget, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(budget, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(budget, "shutdown");
+    }
+
+    @Test
+    void largerIdleBufferServesASmallerRequest() {
+        ByteBuffer large = budget.tryAcquire(500 * KB);
+        budget.release(large);
+        assertThat(budget.tryAcquire(100 * KB)).isSameAs(large);
+        assertThat(budget.getAllocated()).isEqualTo(512 * KB);
+    }
+
+    @Test
+    void idleBuffersThatAreTooSmallAreFreedToMakeRoom() {
+        budget.release(budget.tryAcquire(500 * KB));
+        ByteBuffer large = budget.tryAcquire(700 * KB);
+        assertThat(large).isNotNull();
+        assertThat(large.capacity()).isEqualTo(1024 * KB);
+        assertThat(budget.getAllocated()).isEqualTo(1024 * KB);
+    }
+
+    @Test
+    void exactSizeIsUsedWhenThePowerOfTwoDoesNotFit() {
+        budget.tryAcquire(200 * KB);
+        ByteBuffer buffer = budget.tryAcquire(600 * KB);
+        assertThat(buffer).isNotNull();
+        assertThat(buffer.capacity()).isEqualTo(640 * KB);
+        assertThat(budget.tryAcquire(200 * KB)).isNull();
+    }
+
+    @Test
+    void recentlyReleasedBuffersStayPooled() {
+        ByteBuffer buffer = budget.tryAcquire(100 * KB);
+        budget.release(buffer);
+        budget.trimIdle();
+        assertThat(budget.getAllocated()).isEqualTo(128 * KB);
+        assertThat(budget.tryAcquire(100 * KB)).isSameAs(buffer);
+    }
+
+}
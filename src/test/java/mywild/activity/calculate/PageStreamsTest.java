@@ -0,0 +1,45 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+
+class PageStreamsTest {
+
+    private static final INatQuery QUERY = INatQuery.of("observations", Map.of("taxon_id", "1"));
+
+    @Test
+    void pagesFetchedAheadAreCountedUntilTaken() throws InterruptedException {
+        SharedPages pages = mock(SharedPages.class);
+        when(pages.fetch(any(), anyBoolean())).thenReturn(page(1, 2), page(3, 4), page(5, 6), page(7, 8), page(9, 9));
+        ObservationPager pager = new ObservationPager(pages, QUERY, true, 2);
+        try (PageStreams streams = new PageStreams(pager, 2, new Semaphore(1), mock(PipelineMetrics.class))) {
+            assertThat(streams.take(0)).extracting(Observation::id).containsExactly(1, 2);
+            // The stream keeps 2 pages queued, and a third page waits to be queued
+            while (streams.getPrefetchedPages() < 3)
+                Thread.sleep(10);
+            assertThat(streams.getQueuedPages()).isEqualTo(2);
+            streams.take(0);
+            assertThat(streams.getPrefetchedPages()).isGreaterThanOrEqualTo(2);
+            assertThat(streams.getTakenPage(0)).isEqualTo(2);
+        }
+    }
+
+    private static Observations page(int firstId, int lastId) {
+        List<Observation> results = IntStream.rangeClosed(firstId, lastId)
+            .mapToObj(id -> new Observation(id, "research", null, "2024-01-01", null, null, false, Double.NaN, Double.NaN))
+            .toList();
+        return new Observations(9, 1, 2, results);
+    }
+
+}
@@ -0,0 +1,151 @@
+package mywild.activity.calculate;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Observations;
+import mywild.activity.calculate.inaturalist.User;
+
+/**
+ * Fetching all the observations (10 each) of 10, 100 and 1000 participants by keyset, from a simulated iNaturalist
+ * that answers every request after a fixed latency: as one query with all the participants (as before the chunks),
+ * and as chunks of 100 participants that are fetched in parallel and merged. The rate limiter is not part of the
+ * simulation, the number of requests and the longest URL are printed at the end of each run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParticipantChunksBenchmark {
+
+    private static final int OBSERVATIONS_PER_PARTICIPANT = 10;
+
+    private static final int PARTICIPANTS_PER_QUERY = 100;
+
+    private static final int PER_PAGE = 200;
+
+    private static final int CONCURRENCY = 3;
+
+    private static final long LATENCY_MILLIS = 20;
+
+    private static final INatQuery QUERY = INatQuery.of("observations", Map.of("taxon_id", "3", "order_by", "id", "order", "asc"));
+
+    @Param({"10", "100", "1000"})
+    public int participants;
+
+    private List<String> logins;
+
+    private List<Observation> observations; // Sorted by id, as iNaturalist returns them when walking by keyset
+
+    private SharedPages pages;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger operations = new AtomicInteger();
+
+    private int longestUrl;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        logins = IntStream.range(0, participants).mapToObj(i -> "participant" + (100000 + i)).toList();
+        observations = IntStream.range(0, participants * OBSERVATIONS_PER_PARTICIPANT)
+            .mapToObj(i -> new Observation(300000000 + i, "research", new User(0, logins.get(i % participants), null),
+                "2024-01-01", null, null, false, Double.NaN, Double.NaN))
+            .toList();
+        pages = mock(SharedPages.class);
+        when(pages.getPermits()).thenAnswer(invocation -> new Semaphore(CONCURRENCY - 1)); // The step holds one
+        when(pages.fetch(any(), anyBoolean())).thenAnswer(invocation -> respond(invocation.getArgument(0)));
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%n%d participants: %.1f requests per operation, longest URL %d characters%n",
+            participants, requests.get() / (double) operations.get(), longestUrl);
+    }
+
+    @Benchmark
+    public int singleQuery() {
+        operations.incrementAndGet();
+        ObservationPager pager = new ObservationPager(pages, QUERY.with("user_id", String.join(",", logins)), true, PER_PAGE);
+        int fetched = 0;
+        Observations page;
+        while ((page = pager.next()) != null) {
+            fetched += page.results().size();
+        }
+        return fetched;
+    }
+
+    @Benchmark
+    public int mergedChunks() throws InterruptedException {
+        operations.incrementAndGet();
+        List<INatQuery> chunks = new ArrayList<>();
+        for (int i = 0; i < logins.size(); i += PARTICIPANTS_PER_QUERY) {
+            chunks.add(QUERY.with("user_id",
+                String.join(",", logins.subList(i, Math.min(i + PARTICIPANTS_PER_QUERY, logins.size())))));
+        }
+        int fetched = 0;
+        try (PageStreams streams = new PageStreams(pages, chunks, true, PER_PAGE, CONCURRENCY, mock(PipelineMetrics.class))) {
+            List<Observation> page;
+            while ((page = streams.takeMerged(Comparator.comparingInt(Observation::id))) != null) {
+                fetched += page.size();
+            }
+        }
+        return fetched;
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark() throws RunnerException {
+        BenchmarkRunner.run(ParticipantChunksBenchmark.class);
+    }
+
+    /**
+     * The observations of the query's users after its id_above, with the total of the remaining results.
+     */
+    private Observations respond(INatQuery query) throws InterruptedException {
+        requests.incrementAndGet();
+        synchronized (this) {
+            longestUrl = Math.max(longestUrl, query.toUri().length());
+        }
+        Set<String> users = new HashSet<>(Arrays.asList(query.get("user_id").split(",")));
+        int afterId = Integer.parseInt(query.get("id_above"));
+        List<Observation> remaining = observations.stream()
+            .filter(observation -> observation.id() > afterId && users.contains(observation.user().login()))
+            .toList();
+        Thread.sleep(LATENCY_MILLIS);
+        return new Observations(remaining.size(), 1, PER_PAGE, remaining.subList(0, Math.min(PER_PAGE, remaining.size())));
+    }
+
+}
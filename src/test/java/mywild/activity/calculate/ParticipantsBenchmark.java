@@ -0,0 +1,101 @@
+package mywild.activity.calculate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import mywild.activity.ActivityCalculation;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.User;
+import mywild.event.EventEntity;
+
+/**
+ * Scoring 20k observations of 500 participants (a point and the observation id for each observation) and building the
+ * results: keyed by the lower-cased login in maps with boxed ids (as before the dense participant indexes), and by
+ * participant index in primitive arrays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParticipantsBenchmark {
+
+    private static final int OBSERVATIONS = 20_000;
+
+    private static final int PARTICIPANTS = 500;
+
+    private final List<String> logins = IntStream.range(0, PARTICIPANTS).mapToObj(i -> "participant" + i).toList();
+
+    private final Participants participants = Participants.of(EventEntity.builder()
+        .participants(logins.stream().map(login -> "#" + login).collect(Collectors.joining(",")))
+        .build());
+
+    private final List<Observation> observations = IntStream.range(0, OBSERVATIONS)
+        .mapToObj(id -> new Observation(id, "research", new User(0, logins.get((id * 7919) % PARTICIPANTS), null),
+            "2024-01-01", null, null, false, Double.NaN, Double.NaN))
+        .toList();
+
+    @Benchmark
+    public Map<String, ActivityCalculation> byLogin() {
+        Map<String, ActivityCalculation> calculationResults = new HashMap<>(PARTICIPANTS);
+        for (Observation observation : observations) {
+            String participant = observation.user().login().toLowerCase();
+            ActivityCalculation activityCalculation = calculationResults.get(participant);
+            if (activityCalculation == null) {
+                activityCalculation = new ActivityCalculation(0, new ArrayList<>(4), null);
+                calculationResults.put(participant, activityCalculation);
+            }
+            activityCalculation.setScore(activityCalculation.getScore() + 1);
+            activityCalculation.getObservations().add(observation.id());
+        }
+        for (String participant : logins) {
+            calculationResults.putIfAbsent(participant, new ActivityCalculation(0, null, null));
+        }
+        return calculationResults;
+    }
+
+    @Benchmark
+    public Map<String, ActivityCalculation> byIndex() {
+        int[] scores = new int[participants.size()];
+        IntList[] scoringIds = new IntList[participants.size()];
+        for (Observation observation : observations) {
+            int participant = participants.indexOf(observation);
+            if (participant < 0)
+                continue;
+            scores[participant]++;
+            if (scoringIds[participant] == null)
+                scoringIds[participant] = new IntList(4);
+            scoringIds[participant].add(observation.id());
+        }
+        Map<String, ActivityCalculation> calculationResults = new HashMap<>(participants.size());
+        for (int participant = 0; participant < participants.size(); participant++) {
+            calculationResults.put(participants.login(participant), new ActivityCalculation(scores[participant],
+                scoringIds[participant] == null ? null : scoringIds[participant].toList(), null));
+        }
+        return calculationResults;
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark() throws RunnerException {
+        BenchmarkRunner.run(ParticipantsBenchmark.class);
+    }
+
+}
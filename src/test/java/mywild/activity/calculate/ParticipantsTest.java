@@ -0,0 +1,43 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.User;
+import mywild.event.EventEntity;
+
+class ParticipantsTest {
+
+    private final Participants participants = Participants.of(EventEntity.builder().participants("#alice,#Bob,#carol").build());
+
+    @Test
+    void participantsAreIndexedInOrder() {
+        assertThat(participants.size()).isEqualTo(3);
+        assertThat(participants.getLogins()).containsExactly("alice", "Bob", "carol");
+        assertThat(participants.indexOf("alice")).isEqualTo(0);
+        assertThat(participants.login(2)).isEqualTo("carol");
+    }
+
+    @Test
+    void loginsMatchIgnoringCase() {
+        assertThat(participants.indexOf("bob")).isEqualTo(1);
+        assertThat(participants.indexOf("CAROL")).isEqualTo(2);
+    }
+
+    @Test
+    void unknownUsersHaveNoIndex() {
+        assertThat(participants.indexOf("dave")).isEqualTo(-1);
+        assertThat(participants.indexOf((String) null)).isEqualTo(-1);
+        assertThat(participants.indexOf(observation(null))).isEqualTo(-1);
+    }
+
+    @Test
+    void observationIsIndexedByItsUser() {
+        assertThat(participants.indexOf(observation(new User(1, "bob", null)))).isEqualTo(1);
+    }
+
+    private static Observation observation(User user) {
+        return new Observation(1, "research", user, "2024-01-01", null, null, false, Double.NaN, Double.NaN);
+    }
+
+}
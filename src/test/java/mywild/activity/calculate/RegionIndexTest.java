@@ -0,0 +1,53 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import mywild.activity.ActivityRegion;
+
+class RegionIndexTest {
+
+    private final RegionIndex index = new RegionIndex(List.of(
+        square("West", 0, 0, 10, 10),
+        square("East", 0, 10, 10, 20),
+        square("Overlap", 5, 5, 15, 15),
+        // A triangle, its bounding box covers (2, 28) but the triangle does not
+        new ActivityRegion("Triangle", List.of(List.of(0.0, 20.0), List.of(10.0, 20.0), List.of(0.0, 30.0)))));
+
+    @Test
+    void locationIsFoundInItsRegion() {
+        assertThat(find(2, 2)).containsExactly(0);
+        assertThat(find(2, 12)).containsExactly(1);
+    }
+
+    @Test
+    void overlappingRegionsAreAllFound() {
+        assertThat(find(7, 7)).containsExactlyInAnyOrder(0, 2);
+    }
+
+    @Test
+    void boundingBoxAloneIsNotEnough() {
+        assertThat(find(2, 22)).containsExactly(3);
+        assertThat(find(8, 28)).isEmpty();
+    }
+
+    @Test
+    void locationsOutsideTheGridOrWithoutCoordinatesAreNotFound() {
+        assertThat(find(-1, 5)).isEmpty();
+        assertThat(find(16, 5)).isEmpty();
+        assertThat(find(5, 40)).isEmpty();
+        assertThat(find(Double.NaN, Double.NaN)).isEmpty();
+    }
+
+    private int[] find(double lat, double lng) {
+        int[] found = new int[index.size()];
+        return Arrays.copyOf(found, index.find(lat, lng, found));
+    }
+
+    private static ActivityRegion square(String name, double swLat, double swLng, double neLat, double neLng) {
+        return new ActivityRegion(name, List.of(
+            List.of(swLat, swLng), List.of(neLat, swLng), List.of(neLat, neLng), List.of(swLat, neLng)));
+    }
+
+}
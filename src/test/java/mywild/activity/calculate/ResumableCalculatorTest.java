@@ -0,0 +1,79 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mywild.activity.ActivityStepResult;
+import mywild.activity.ActivityStepState;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Taxon;
+import mywild.activity.calculate.inaturalist.User;
+
+class ResumableCalculatorTest {
+
+    private static final ZonedDateTime OBSERVED_AT = ZonedDateTime.parse("2024-01-01T08:00:00Z");
+
+    private final Timer scoreStage = new SimpleMeterRegistry().timer("score");
+
+    @Test
+    void stateKeepsOnlyWhatScoringNeeds() {
+        ResumableCalculator calculator = new ResumableCalculator(new KeepAll(), scoreStage);
+        calculator.accept(List.of(observation(7, "Alice")));
+        ActivityStepState state = calculator.toState("step", "query");
+        assertThat(state.getLastObservationId()).isEqualTo(7);
+        assertThat(state.getObservations()).singleElement().satisfies(kept -> {
+            assertThat(kept.getId()).isEqualTo(7);
+            assertThat(kept.getLogin()).isEqualTo("Alice");
+            assertThat(kept.getObservedOn()).isEqualTo("2024-01-01");
+            assertThat(kept.getTimeObservedAt()).isEqualTo(OBSERVED_AT);
+        });
+    }
+
+    @Test
+    void resumedCalculatorScoresTheSameObservations() {
+        ResumableCalculator calculator = new ResumableCalculator(new KeepAll(), scoreStage);
+        calculator.accept(List.of(observation(7, "Alice"), observation(3, "Bob")));
+        calculator.coverUpTo(20);
+        KeepAll resumed = new KeepAll();
+        ResumableCalculator resumable = new ResumableCalculator(resumed, calculator.toState("step", "query"), scoreStage);
+        assertThat(resumable.getLastObservationId()).isEqualTo(20);
+        assertThat(resumed.observations)
+            .extracting(Observation::id, observation -> observation.user().login(), Observation::observed_on,
+                Observation::time_observed_at)
+            .containsExactly(
+                tuple(7, "Alice", "2024-01-01", OBSERVED_AT),
+                tuple(3, "Bob", "2024-01-01", OBSERVED_AT));
+    }
+
+    private static Observation observation(int id, String login) {
+        return new Observation(id, "research", new User(id, login, login), "2024-01-01", OBSERVED_AT,
+            new Taxon(3, true, "3", new int[] { 3 }, 50, "class", "Birds", "Aves", null), false, -33.9, 18.4);
+    }
+
+    private static class KeepAll implements StepCalculator {
+
+        private final List<Observation> observations = new ArrayList<>();
+
+        @Override
+        public void accept(List<Observation> observations) {
+            this.observations.addAll(observations);
+        }
+
+        @Override
+        public ActivityStepResult finish() {
+            return null;
+        }
+
+        @Override
+        public List<Observation> getResumeObservations() {
+            return observations;
+        }
+
+    }
+
+}
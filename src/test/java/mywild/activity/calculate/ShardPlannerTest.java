@@ -0,0 +1,82 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.job.JobContext;
+
+class ShardPlannerTest {
+
+    private static final INatQuery QUERY = INatQuery.of("observations", Map.of("taxon_id", "1"));
+
+    private static final LocalDate START = LocalDate.parse("2024-01-01");
+
+    private static final LocalDate STOP = LocalDate.parse("2024-01-08");
+
+    private final INatClient client = mock(INatClient.class);
+
+    private final JobContext context = mock(JobContext.class);
+
+    private ShardPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        planner = new ShardPlanner();
+        ReflectionTestUtils.setField(planner, "resultsPerShard", 100);
+        ReflectionTestUtils.setField(planner, "maxShards", 4);
+        ReflectionTestUtils.setField(planner, "client", client);
+    }
+
+    @Test
+    void smallQueryIsNotSharded() {
+        assertThat(planner.isShardingUseful(100)).isFalse();
+        assertThat(planner.isShardingUseful(101)).isTrue();
+    }
+
+    @Test
+    void windowIsHalvedUntilEveryShardFits() {
+        when(client.count(QUERY.with("d1", START).with("d2", LocalDate.parse("2024-01-04")))).thenReturn(150);
+        when(client.count(QUERY.with("d1", START).with("d2", LocalDate.parse("2024-01-02")))).thenReturn(60);
+        List<INatQuery> shards = planner.plan(QUERY, START, STOP, 200, context);
+        // 60 + 90 in the first half, and the remaining 50 in the second half
+        assertThat(shards).containsExactly(
+            QUERY.with("d1", START).with("d2", LocalDate.parse("2024-01-02")),
+            QUERY.with("d1", LocalDate.parse("2024-01-03")).with("d2", LocalDate.parse("2024-01-04")),
+            QUERY.with("d1", LocalDate.parse("2024-01-05")).with("d2", STOP));
+        verify(context, times(2)).pageFetched();
+    }
+
+    @Test
+    void emptyHalvesAreLeftOut() {
+        when(client.count(QUERY.with("d1", LocalDate.parse("2024-01-05")).with("d2", LocalDate.parse("2024-01-06")))).thenReturn(75);
+        List<INatQuery> shards = planner.plan(QUERY, START, STOP, 150, context); // The first half has no results
+        assertThat(shards).containsExactly(
+            QUERY.with("d1", LocalDate.parse("2024-01-05")).with("d2", LocalDate.parse("2024-01-06")),
+            QUERY.with("d1", LocalDate.parse("2024-01-07")).with("d2", STOP));
+    }
+
+    @Test
+    void tooManyShardsGiveNoPlan() {
+        ReflectionTestUtils.setField(planner, "maxShards", 2);
+        when(client.count(any())).thenReturn(150);
+        assertThat(planner.plan(QUERY, START, STOP, 1200, context)).isEmpty();
+    }
+
+    @Test
+    void singleDayIsNotSplitFurther() {
+        assertThat(planner.plan(QUERY, START, START, 500, context)).containsExactly(QUERY.with("d1", START).with("d2", START));
+        verify(client, never()).count(any());
+    }
+
+}
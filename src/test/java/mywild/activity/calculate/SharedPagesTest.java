@@ -0,0 +1,86 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mywild.activity.calculate.inaturalist.INatQuery;
+import mywild.activity.calculate.inaturalist.Observations;
+import mywild.job.JobContext;
+
+class SharedPagesTest {
+
+    private static final INatQuery QUERY = INatQuery.of("observations", Map.of("user_id", "a,b"));
+
+    private INatClient client;
+
+    private SharedPages pages;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(INatClient.class);
+        when(client.fetchObservations(any())).thenAnswer(call -> new Observations(3, 1, 1, List.of()));
+        Counter deduplicated = Counter.builder("test").register(new SimpleMeterRegistry());
+        pages = new SharedPages(client, mock(ObservationCache.class), mock(JobContext.class), deduplicated, 1,
+            mock(PersistQueue.class));
+        pages.addConsumer("activity", "step1", List.of(QUERY));
+        pages.addConsumer("activity", "step2", List.of(QUERY));
+    }
+
+    @Test
+    void fetchesAPageOnceForAllItsSteps() {
+        SharedPages step1 = pages.forStep();
+        SharedPages step2 = pages.forStep();
+        step1.fetch(QUERY.with("page", 1));
+        step2.fetch(QUERY.with("page", 1));
+        verify(client, times(1)).fetchObservations(any());
+        assertThat(sharedPages()).isEmpty();
+    }
+
+    @Test
+    void releasesThePagesThatAnEarlyStoppedStepDidNotRead() {
+        SharedPages step1 = pages.forStep();
+        SharedPages step2 = pages.forStep();
+        step1.fetch(QUERY.with("page", 1));
+        step1.fetch(QUERY.with("page", 2));
+        step2.fetch(QUERY.with("page", 1));
+        assertThat(sharedPages()).containsOnlyKeys(QUERY.with("page", 2));
+        step2.release("activity", "step2"); // Stopped early, without reading page 2
+        assertThat(sharedPages()).isEmpty();
+    }
+
+    @Test
+    void keepsThePagesThatTheOtherStepsStillNeed() {
+        SharedPages step1 = pages.forStep();
+        SharedPages step2 = pages.forStep();
+        step1.fetch(QUERY.with("page", 1));
+        step1.release("activity", "step1");
+        assertThat(sharedPages()).containsOnlyKeys(QUERY.with("page", 1));
+        step2.fetch(QUERY.with("page", 1));
+        verify(client, times(1)).fetchObservations(any());
+        assertThat(sharedPages()).isEmpty();
+    }
+
+    @Test
+    void stopsSharingTheQueryOnceOnlyOneStepIsLeft() {
+        pages.releaseAll("activity"); // For example a skipped Activity
+        pages.forStep().fetch(QUERY.with("page", 1));
+        assertThat(sharedPages()).isEmpty();
+        pages.releaseAll("activity"); // Releasing again does nothing
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<INatQuery, ?> sharedPages() {
+        return (Map<INatQuery, ?>) ReflectionTestUtils.getField(pages, "pages");
+    }
+
+}
@@ -0,0 +1,79 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mywild.activity.calculate.inaturalist.Taxa;
+import mywild.activity.calculate.inaturalist.Taxon;
+
+class TaxonResolverTest {
+
+    private static final Taxon LION = new Taxon(41964, true, null, null, 10, "species", "Lion", "Panthera leo", "Lion");
+
+    private INatClient client;
+
+    private TaxonRepository repo;
+
+    private TaxonResolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(INatClient.class);
+        repo = mock(TaxonRepository.class);
+        when(repo.findByName(any())).thenReturn(Optional.empty());
+        when(repo.save(any())).thenAnswer(call -> call.getArgument(0));
+        resolver = new TaxonResolver();
+        ReflectionTestUtils.setField(resolver, "cacheDays", 7);
+        ReflectionTestUtils.setField(resolver, "inatClient", client);
+        ReflectionTestUtils.setField(resolver, "taxonRepo", repo);
+        ReflectionTestUtils.setField(resolver, "meterRegistry", new SimpleMeterRegistry());
+    }
+
+    @Test
+    void resolvesExactMatchesOnce() {
+        when(client.fetch(any(), eq(Taxa.class))).thenReturn(new Taxa(2, 1, 30, List.of(LION,
+            new Taxon(1, true, null, null, 10, "species", "Lion's Mane", "Cyanea capillata", "Lion's Mane"))));
+        assertThat(resolver.resolveIds(" LION ")).isEqualTo("41964");
+        assertThat(resolver.resolveIds("lion")).isEqualTo("41964");
+        verify(client, times(1)).fetch(any(), eq(Taxa.class));
+        verify(repo, times(1)).save(any());
+    }
+
+    @Test
+    void remembersUnknownNames() {
+        when(client.fetch(any(), eq(Taxa.class))).thenReturn(new Taxa(0, 1, 30, List.of()));
+        assertThat(resolver.resolveIds("unicorn")).isNull();
+        assertThat(resolver.resolveIds("unicorn")).isNull();
+        verify(client, times(1)).fetch(any(), eq(Taxa.class));
+    }
+
+    @Test
+    void remembersFailedLookupsForAWhile() {
+        when(client.fetch(any(), eq(Taxa.class))).thenThrow(new IllegalStateException("iNaturalist is down"));
+        assertThat(resolver.resolve("lion")).isEmpty();
+        assertThat(resolver.resolve("lion")).isEmpty();
+        verify(client, times(1)).fetch(any(), eq(Taxa.class));
+        verify(repo, times(0)).save(any());
+    }
+
+    @Test
+    void usesTheResultOfAConcurrentSave() {
+        when(client.fetch(any(), eq(Taxa.class))).thenReturn(new Taxa(1, 1, 30, List.of(LION)));
+        when(repo.save(any())).thenThrow(new IllegalStateException("Conflict"));
+        TaxonEntity stored = TaxonEntity.builder().name("lion").taxa(List.of(LION)).resolved(ZonedDateTime.now()).build();
+        when(repo.findByName("lion")).thenReturn(Optional.empty(), Optional.of(stored));
+        assertThat(resolver.resolve("lion")).containsExactly(LION);
+    }
+
+}
@@ -0,0 +1,56 @@
+package mywild.activity.calculate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import mywild.activity.calculate.inaturalist.Observation;
+import mywild.activity.calculate.inaturalist.Taxon;
+
+class TaxonRouterTest {
+
+    private static final int BIRDS = 3;
+
+    private static final int RAPTORS = 71261;
+
+    private static final int FROGS = 20979;
+
+    private TaxonRouter router;
+
+    @BeforeEach
+    void setUp() {
+        router = new TaxonRouter();
+        router.addTaxon(BIRDS, 0);
+        router.addTaxon(RAPTORS, 1);
+        router.addTaxon(FROGS, 2);
+        router.addTaxon(RAPTORS, 3); // Two steps for the same taxon
+    }
+
+    @Test
+    void taxonIdsAreSorted() {
+        assertThat(router.getTaxonIds()).containsExactly(BIRDS, FROGS, RAPTORS);
+    }
+
+    @Test
+    void observationIsRoutedToTheStepsOfItsAncestors() {
+        Observation eagle = observation(5305, BIRDS, RAPTORS, 5305);
+        assertThat(router.route(eagle)).containsExactly(0, 1, 3);
+    }
+
+    @Test
+    void observationOfTheStepTaxonItselfIsRouted() {
+        assertThat(router.route(observation(FROGS))).containsExactly(2);
+    }
+
+    @Test
+    void observationOutsideTheTaxaIsNotRouted() {
+        assertThat(router.route(observation(47126, 47126))).isEmpty();
+        assertThat(router.route(new Observation(1, "research", null, "2024-01-01", null, null, false, Double.NaN, Double.NaN)))
+            .isEmpty();
+    }
+
+    private static Observation observation(int taxonId, int... ancestry) {
+        Taxon taxon = new Taxon(taxonId, true, null, ancestry, 10, "species", null, null, null);
+        return new Observation(1, "research", null, "2024-01-01", null, taxon, false, Double.NaN, Double.NaN);
+    }
+
+}
@@ -0,0 +1,56 @@
+package mywild.job;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class JobContextTest {
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void cancelInterruptsTheRunningWorker() {
+        JobContext context = new JobContext("job", JobType.EVENT, "event", null, false);
+        context.start();
+        context.cancel("Stop");
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        assertThat(context.getCancelReason(null)).isEqualTo("Stop");
+    }
+
+    @Test
+    void releaseClearsTheCancellationOfTheWorker() {
+        JobContext context = new JobContext("job", JobType.EVENT, "event", null, false);
+        context.start();
+        context.cancel("Stop");
+        context.release();
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    @Test
+    void lateCancelDoesNotInterruptTheNextJobOfTheWorker() {
+        JobContext context = new JobContext("job", JobType.EVENT, "event", null, false);
+        context.start();
+        context.done();
+        context.release();
+        context.cancel("Too late");
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    @Test
+    void activityCancellationOnlyInterruptsWhileTheActivityRuns() {
+        JobContext context = new JobContext("job", JobType.EVENT, "event", null, false);
+        context.startActivity("activity");
+        context.cancelActivity("activity", "Changed");
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        context.finishActivity("activity");
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+        context.cancelActivity("activity", "Changed again");
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+        assertThat(context.getCancelReason("activity")).isEqualTo("Changed");
+        assertThat(context.getCancelReason("other")).isNull();
+    }
+
+}
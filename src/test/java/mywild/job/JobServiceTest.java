@@ -0,0 +1,65 @@
+package mywild.job;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class JobServiceTest {
+
+    private JobService jobService;
+
+    @BeforeEach
+    void setUp() {
+        jobService = new JobService();
+        ReflectionTestUtils.setField(jobService, "workers", 2);
+        ReflectionTestUtils.setField(jobService, "queueSize", 10);
+        ReflectionTestUtils.setField(jobService, "retentionMinutes", 60);
+        ReflectionTestUtils.setField(jobService, "idempotencyMinutes", 60);
+        ReflectionTestUtils.setField(jobService, "shutdownSeconds", 1);
+        ReflectionTestUtils.invokeMethod(jobService, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(jobService, "shutdown");
+    }
+
+    @Test
+    void jobCancelledWhileWaitingForTheActivityEndsCancelled() throws InterruptedException {
+        jobService.claimActivity("activity"); // Held by another Job
+        CountDownLatch waiting = new CountDownLatch(1);
+        Job job = jobService.submit(JobType.ACTIVITY, "event", "activity", false, null, null, context -> {
+            try {
+                waiting.countDown();
+                jobService.claimActivity("activity");
+            }
+            catch (InterruptedException ex) {
+                // Stopped waiting, without calculating the Activity
+            }
+        });
+        waiting.await();
+        jobService.cancel("event", "activity", "Stop");
+        assertThat(jobs().get(job.getId()).getStatus()).isEqualTo(JobStatus.CANCELLED);
+        assertThat(jobs().get(job.getId()).getCancelReason(null)).isEqualTo("Stop");
+    }
+
+    @Test
+    void finishedJobIsDone() throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(1);
+        Job job = jobService.submit(JobType.ACTIVITY, "event", "activity", false, null, null, context -> finished.countDown());
+        finished.await();
+        while (!jobs().get(job.getId()).isFinished())
+            Thread.sleep(10);
+        assertThat(jobs().get(job.getId()).getStatus()).isEqualTo(JobStatus.DONE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, JobContext> jobs() {
+        return (Map<String, JobContext>) ReflectionTestUtils.getField(jobService, "jobs");
+    }
+
+}